@@ -0,0 +1,219 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.io.ByteBufferPool;
+import com.mycompany.frauddetection.io.InferencePayloads;
+import com.mycompany.frauddetection.io.SpillFileStore;
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import com.mycompany.frauddetection.resilience.AdaptiveConcurrencyLimiter;
+import com.mycompany.frauddetection.resilience.CircuitBreaker;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import com.mycompany.frauddetection.risk.UserRiskStore;
+import com.mycompany.frauddetection.scan.ContentScanner;
+import com.mycompany.frauddetection.service.ContentVerdictCache;
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import com.mycompany.frauddetection.service.IdempotencyStore;
+import com.mycompany.frauddetection.service.LegacySystemService;
+import com.mycompany.frauddetection.service.NoSQLDatabaseService;
+import com.mycompany.frauddetection.service.SQLDatabaseService;
+import com.mycompany.frauddetection.service.SageMakerInferenceBatcher;
+import com.mycompany.frauddetection.service.SqsResultPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeAsyncClient;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeClient;
+import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointRequest;
+import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointResponse;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * In-process stubs of every dependency of {@link FraudDetectionService}, answering instantly, so the benchmarks
+ * measure the service's own work only.
+ */
+final class BenchmarkFixtures {
+
+    // Neither 'f' nor 'l' occurs, so no default content rule ever matches and every scan reads the whole content
+    private static final byte[] ALPHABET = "abcdeghijkmnopqrstuvwxyz ".getBytes();
+
+    private static final InvokeEndpointResponse CLEAN_INFERENCE = (InvokeEndpointResponse) InvokeEndpointResponse.builder()
+            .body(SdkBytes.fromUtf8String("{\"prediction\":\"clean\"}"))
+            .contentType("application/json")
+            .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+            .build();
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return text of the given size that no content rule matches, the same for every call with the same size
+     */
+    static byte[] content(int size) {
+        Random random = new Random(size);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return content;
+    }
+
+    /**
+     * @return a guard that never sheds the calls of a benchmark, so only its own overhead is measured
+     */
+    static DependencyGuard dependencyGuard(String name, SimpleMeterRegistry meterRegistry) {
+        return new DependencyGuard(name, new CircuitBreaker(100, 100, 1.0, Duration.ofSeconds(1), 1),
+                new AdaptiveConcurrencyLimiter(100_000, 100_000, 100_000, Duration.ofMinutes(1), 1.0),
+                Duration.ofMinutes(1), meterRegistry);
+    }
+
+    static FraudDetectionService fraudDetectionService(ExecutorService fraudCheckExecutor, boolean asyncInference,
+                                                       FraudVerdictEncoder.Format format) throws IOException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+        SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient = sageMakerRuntimeAsyncClient();
+
+        FraudDetectionService fraudDetectionService = new FraudDetectionService();
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerRuntimeClient", sageMakerRuntimeClient());
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerRuntimeAsyncClient", sageMakerRuntimeAsyncClient);
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerInferenceBatcher", new SageMakerInferenceBatcher(
+                sageMakerRuntimeAsyncClient, "benchmark-endpoint", false, 16, 5_242_880, Duration.ofMillis(10)));
+        ReflectionTestUtils.setField(fraudDetectionService, "legacySystemService", new StubLegacySystemService(meterRegistry));
+        ReflectionTestUtils.setField(fraudDetectionService, "noSQLDatabaseService",
+                new NoSQLDatabaseService(dynamoDbClient(), pipelineMetrics));
+        ReflectionTestUtils.setField(fraudDetectionService, "sqlDatabaseService",
+                new SQLDatabaseService(new JdbcTemplate(), new TransactionTemplate(), pipelineMetrics));
+        ReflectionTestUtils.setField(fraudDetectionService, "sqsResultPublisher",
+                new SqsResultPublisher(sqsClient(), pipelineMetrics));
+        ReflectionTestUtils.setField(fraudDetectionService, "fraudVerdictEncoder", new FraudVerdictEncoder(format));
+        ReflectionTestUtils.setField(fraudDetectionService, "byteBufferPool", new ByteBufferPool(false, 1 << 24, 1 << 28));
+        ReflectionTestUtils.setField(fraudDetectionService, "spillFileStore",
+                new SpillFileStore(Files.createTempDirectory("benchmark-spill"), 1L << 40));
+        ReflectionTestUtils.setField(fraudDetectionService, "contentScanner",
+                new ContentScanner(List.of("fraud", "illegal"), "", false));
+        // Disabled, otherwise every invocation after the first is answered from the cache
+        ReflectionTestUtils.setField(fraudDetectionService, "contentVerdictCache",
+                new ContentVerdictCache(meterRegistry, false, 0, Duration.ofHours(1), ""));
+        ReflectionTestUtils.setField(fraudDetectionService, "fraudCheckExecutor", fraudCheckExecutor);
+        ReflectionTestUtils.setField(fraudDetectionService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(fraudDetectionService, "pipelineMetrics", pipelineMetrics);
+        // Every benchmark invocation comes from the same user, which must not be throttled
+        ReflectionTestUtils.setField(fraudDetectionService, "userRiskStore", new UserRiskStore(meterRegistry, false,
+                1, 1, Duration.ofMinutes(1), 1, Duration.ZERO));
+        // Disabled, otherwise every invocation after the first is recognized as a redelivery
+        ReflectionTestUtils.setField(fraudDetectionService, "idempotencyStore", new IdempotencyStore(null,
+                meterRegistry, false, "", 1, Duration.ofHours(1), Duration.ofMinutes(1)));
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerGuard", dependencyGuard("sagemaker", meterRegistry));
+        ReflectionTestUtils.setField(fraudDetectionService, "fraudDetectionEndpoint", "benchmark-endpoint");
+        ReflectionTestUtils.setField(fraudDetectionService, "maxAIInputBytes", InferencePayloads.MAX_INPUT_BYTES);
+        ReflectionTestUtils.setField(fraudDetectionService, "asyncInference", asyncInference);
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 60_000L);
+        return fraudDetectionService;
+    }
+
+    static SageMakerRuntimeClient sageMakerRuntimeClient() {
+        return new SageMakerRuntimeClient() {
+            @Override
+            public InvokeEndpointResponse invokeEndpoint(InvokeEndpointRequest request) {
+                return CLEAN_INFERENCE;
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient() {
+        return new SageMakerRuntimeAsyncClient() {
+            @Override
+            public CompletableFuture<InvokeEndpointResponse> invokeEndpoint(InvokeEndpointRequest request) {
+                return CompletableFuture.completedFuture(CLEAN_INFERENCE);
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static SqsClient sqsClient() {
+        return new SqsClient() {
+            @Override
+            public SendMessageResponse sendMessage(SendMessageRequest request) {
+                return SendMessageResponse.builder().messageId("benchmark").build();
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static DynamoDbClient dynamoDbClient() {
+        return new DynamoDbClient() {
+            @Override
+            public PutItemResponse putItem(PutItemRequest request) {
+                return PutItemResponse.builder().build();
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Legacy system answering every user as clean, without a REST call.
+     */
+    static final class StubLegacySystemService extends LegacySystemService {
+
+        StubLegacySystemService(SimpleMeterRegistry meterRegistry) {
+            super(new RestTemplate(), WebClient.create(), meterRegistry,
+                    dependencyGuard("legacy", meterRegistry), ClientMode.REST_TEMPLATE,
+                    1000, Duration.ofMinutes(30), Duration.ofMinutes(5));
+        }
+
+        @Override
+        public boolean checkUserFraud(String userId) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Content rule scan over content no rule matches, i.e. the full single pass over the bytes.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ContentScanBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216", "104857600"})
+    private int size;
+
+    private ExecutorService fraudCheckExecutor;
+    private FraudDetectionService fraudDetectionService;
+    private ByteBuffer content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fraudCheckExecutor = Executors.newCachedThreadPool();
+        fraudDetectionService = BenchmarkFixtures.fraudDetectionService(fraudCheckExecutor, false,
+                FraudVerdictEncoder.Format.JSON);
+        content = ByteBuffer.wrap(BenchmarkFixtures.content(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean checkContentFraud() {
+        return fraudDetectionService.checkContentFraud(content, "text/plain");
+    }
+}
@@ -0,0 +1,56 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The whole of {@code detectFraud} against in-process stubs of SageMaker, the legacy system, DynamoDB and SQS:
+ * hashing, the three concurrent checks, persistence and result publishing.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DetectFraudBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216", "104857600"})
+    private int size;
+
+    @Param({"true", "false"})
+    private boolean asyncInference;
+
+    private ExecutorService fraudCheckExecutor;
+    private FraudDetectionService fraudDetectionService;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fraudCheckExecutor = Executors.newFixedThreadPool(64);
+        fraudDetectionService = BenchmarkFixtures.fraudDetectionService(fraudCheckExecutor, asyncInference,
+                FraudVerdictEncoder.Format.JSON);
+        content = BenchmarkFixtures.content(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void detectFraud() throws Exception {
+        fraudDetectionService.detectFraud(content, "text/plain", "benchmark-user");
+    }
+}
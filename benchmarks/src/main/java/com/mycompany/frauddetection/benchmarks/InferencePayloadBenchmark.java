@@ -0,0 +1,60 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import com.mycompany.frauddetection.service.FraudDetectionService.PayloadFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SageMaker request construction in {@code performAIFraudCheck} against an endpoint stub answering instantly, so
+ * the measured work is the payload encoding. Inputs beyond {@code fraud.sagemaker.max-input-bytes} are truncated.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InferencePayloadBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216", "104857600"})
+    private int size;
+
+    @Param({"JSON", "RAW"})
+    private PayloadFormat payloadFormat;
+
+    private ExecutorService fraudCheckExecutor;
+    private FraudDetectionService fraudDetectionService;
+    private ByteBuffer content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fraudCheckExecutor = Executors.newCachedThreadPool();
+        fraudDetectionService = BenchmarkFixtures.fraudDetectionService(fraudCheckExecutor, false,
+                FraudVerdictEncoder.Format.JSON);
+        ReflectionTestUtils.setField(fraudDetectionService, "payloadFormat", payloadFormat);
+        content = ByteBuffer.wrap(BenchmarkFixtures.content(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean performAIFraudCheck() throws Exception {
+        return fraudDetectionService.performAIFraudCheck(content, "text/plain");
+    }
+}
@@ -0,0 +1,66 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.io.ByteBufferPool;
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reading an object stream into memory: the growing copy of {@code convertInputStreamToByteArray} against the
+ * single copy into a pooled buffer sized from the content length, which {@code getFileFromS3WithContentType} uses.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InputStreamReadBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216", "104857600"})
+    private int size;
+
+    private ExecutorService fraudCheckExecutor;
+    private FraudDetectionService fraudDetectionService;
+    private ByteBufferPool byteBufferPool;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fraudCheckExecutor = Executors.newCachedThreadPool();
+        fraudDetectionService = BenchmarkFixtures.fraudDetectionService(fraudCheckExecutor, false,
+                FraudVerdictEncoder.Format.JSON);
+        byteBufferPool = new ByteBufferPool(false, 1 << 24, 1 << 28);
+        content = BenchmarkFixtures.content(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] convertInputStreamToByteArray() throws Exception {
+        return fraudDetectionService.convertInputStreamToByteArray(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public int readIntoPooledBuffer() throws Exception {
+        ByteBuffer buffer = byteBufferPool.readFully(new ByteArrayInputStream(content), (long) content.length);
+        int read = buffer.remaining();
+        byteBufferPool.release(buffer);
+        return read;
+    }
+}
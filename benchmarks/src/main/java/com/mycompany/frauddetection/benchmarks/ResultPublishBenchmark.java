@@ -0,0 +1,63 @@
+package com.mycompany.frauddetection.benchmarks;
+
+import com.mycompany.frauddetection.record.CheckResult;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Result serialization in {@code sendFraudDetectionResultToSQS}, handed to a publisher that sends it to an SQS stub.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResultPublishBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    private FraudVerdictEncoder.Format format;
+
+    private ExecutorService fraudCheckExecutor;
+    private FraudDetectionService fraudDetectionService;
+    private FraudVerdictEncoder fraudVerdictEncoder;
+    private FraudVerdict verdict;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fraudCheckExecutor = Executors.newCachedThreadPool();
+        fraudDetectionService = BenchmarkFixtures.fraudDetectionService(fraudCheckExecutor, false, format);
+        fraudVerdictEncoder = new FraudVerdictEncoder(format);
+        verdict = new FraudVerdict("benchmark-user",
+                new CheckResult(true, CheckResult.Outcome.COMPLETED, 1_250),
+                new CheckResult(false, CheckResult.Outcome.TIMEOUT, 2_000_000),
+                new CheckResult(false, CheckResult.Outcome.CACHED, 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void sendFraudDetectionResultToSQS() {
+        fraudDetectionService.sendFraudDetectionResultToSQS(verdict);
+    }
+
+    @Benchmark
+    public String encode() {
+        return fraudVerdictEncoder.encode(verdict);
+    }
+}
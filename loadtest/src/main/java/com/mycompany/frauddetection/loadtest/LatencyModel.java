@@ -0,0 +1,58 @@
+package com.mycompany.frauddetection.loadtest;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response latency and error rate of a stand-in. Latencies follow a log-normal distribution fitted to the
+ * configured median and 99th percentile, which gives the long right tail real dependencies show.
+ * @param medianMs median latency
+ * @param p99Ms 99th percentile latency, at least the median
+ * @param errorRate share of requests answered with a server error, between 0 and 1
+ */
+public record LatencyModel(double medianMs, double p99Ms, double errorRate) {
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    public LatencyModel {
+        if (medianMs < 0 || p99Ms < medianMs || errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Invalid latency model: median " + medianMs + " ms, p99 " + p99Ms
+                    + " ms, error rate " + errorRate);
+        }
+    }
+
+    /**
+     * Read {@code <prefix>.median-ms}, {@code <prefix>.p99-ms} and {@code <prefix>.error-rate}.
+     */
+    public static LatencyModel from(Properties properties, String prefix) {
+        return new LatencyModel(
+                Double.parseDouble(properties.getProperty(prefix + ".median-ms", "0")),
+                Double.parseDouble(properties.getProperty(prefix + ".p99-ms", "0")),
+                Double.parseDouble(properties.getProperty(prefix + ".error-rate", "0")));
+    }
+
+    /**
+     * @return a latency drawn from the distribution, in nanoseconds
+     */
+    public long sampleNanos() {
+        if (medianMs == 0) {
+            return 0;
+        }
+        double sigma = Math.log(p99Ms / medianMs) / Z_99;
+        double millis = medianMs * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        return (long) (millis * 1_000_000);
+    }
+
+    /**
+     * @return whether the next request should fail
+     */
+    public boolean fails() {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "median " + medianMs + " ms, p99 " + p99Ms + " ms, errors " + errorRate * 100 + "%";
+    }
+}
@@ -0,0 +1,186 @@
+package com.mycompany.frauddetection.loadtest;
+
+import com.mycompany.frauddetection.FraudDetectionServiceApplication;
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the full {@code receiveMessage} pipeline at a fixed arrival rate against {@link StubServers}, with the
+ * service's AWS clients and legacy client pointed at the stand-ins, and reports throughput and latency percentiles.
+ * <p>
+ * Load settings ({@code load.*}) and stand-in settings ({@code stub.*}) come from {@code loadtest.properties},
+ * overridable with system properties; any service property, e.g. {@code -Dfraud.checks.pool-size=128}, is passed
+ * through to the service as well. Arrivals are open-loop: a request's latency counts from when it was due, not from
+ * when a worker picked it up, so queueing inside the harness shows up in the percentiles.
+ */
+public final class LoadTest {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = loadProperties();
+        double rate = Double.parseDouble(properties.getProperty("load.rate", "200"));
+        int warmupSeconds = Integer.parseInt(properties.getProperty("load.warmup-seconds", "10"));
+        int durationSeconds = Integer.parseInt(properties.getProperty("load.duration-seconds", "60"));
+        int workers = Integer.parseInt(properties.getProperty("load.workers", "64"));
+        int users = Integer.parseInt(properties.getProperty("load.users", "10000"));
+
+        // The SDK's default credentials chain reads these; the stand-ins never check signatures
+        System.setProperty("aws.accessKeyId", "loadtest");
+        System.setProperty("aws.secretAccessKey", "loadtest");
+
+        try (StubServers stubs = new StubServers(properties);
+             ConfigurableApplicationContext context = new SpringApplicationBuilder(FraudDetectionServiceApplication.class)
+                     .profiles("loadtest")
+                     .run(withStubEndpoints(stubs, args))) {
+            FraudDetectionService fraudDetectionService = context.getBean(FraudDetectionService.class);
+            System.out.printf("Driving %.0f messages/s for %d s (after %d s of warmup) with %d workers%n",
+                    rate, durationSeconds, warmupSeconds, workers);
+
+            run(fraudDetectionService, rate, warmupSeconds, users, workers, null);
+            LatencyRecorder recorder = new LatencyRecorder((int) Math.ceil(rate * durationSeconds));
+            long elapsedNanos = run(fraudDetectionService, rate, durationSeconds, users, workers, recorder);
+            recorder.report(elapsedNanos);
+            reportStages(context.getBean(MeterRegistry.class));
+        }
+    }
+
+    /**
+     * Issue {@code rate} messages per second for {@code seconds}, then wait for all of them to finish.
+     * @return time from the first arrival until the last message finished
+     */
+    private static long run(FraudDetectionService fraudDetectionService, double rate, int seconds, int users,
+                            int workers, LatencyRecorder recorder) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        AtomicInteger sequence = new AtomicInteger();
+        long total = (long) Math.ceil(rate * seconds);
+        long intervalNanos = (long) (1_000_000_000L / rate);
+        long startNanos = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long dueNanos = startNanos + i * intervalNanos;
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            int id = sequence.incrementAndGet();
+            String message = "{\"bucket\":\"loadtest\",\"key\":\"files/" + id + "\",\"userId\":\"user-"
+                    + (id % users) + "\"}";
+            executor.execute(() -> {
+                Exception failure = null;
+                try {
+                    fraudDetectionService.receiveMessage(message);
+                } catch (Exception e) {
+                    failure = e;
+                }
+                if (recorder != null) {
+                    recorder.record(System.nanoTime() - dueNanos, failure);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Point the service at the stand-ins with command line arguments, which take precedence over its
+     * {@code application.properties}.
+     */
+    private static String[] withStubEndpoints(StubServers stubs, String[] args) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--aws.endpoint-override.s3=" + stubs.s3Endpoint(),
+                "--aws.endpoint-override.sqs=" + stubs.sqsEndpoint(),
+                "--aws.endpoint-override.sagemaker=" + stubs.sageMakerEndpoint(),
+                "--aws.endpoint-override.dynamodb=" + stubs.dynamoDbEndpoint(),
+                "--legacy.system.url=" + stubs.legacyEndpoint(),
+                "--fraud.publisher.queue-url=" + stubs.sqsEndpoint() + "/000000000000/results"));
+        arguments.addAll(List.of(args));
+        return arguments.toArray(String[]::new);
+    }
+
+    private static Properties loadProperties() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream defaults = LoadTest.class.getResourceAsStream("/loadtest.properties")) {
+            if (defaults != null) {
+                properties.load(defaults);
+            }
+        }
+        properties.putAll(System.getProperties());
+        return properties;
+    }
+
+    private static void reportStages(MeterRegistry meterRegistry) {
+        System.out.println("Per stage (whole run, including warmup):");
+        meterRegistry.find("fraud.pipeline.stage").timers().stream()
+                .sorted(Comparator.comparing((Timer timer) -> timer.getId().getTag("stage"))
+                        .thenComparing(timer -> timer.getId().getTag("outcome")))
+                .forEach(timer -> System.out.printf("  %-14s %-8s count %8d  mean %8.2f ms  max %8.2f ms%n",
+                        timer.getId().getTag("stage"), timer.getId().getTag("outcome"), timer.count(),
+                        timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * Latencies of the measured messages, kept in full so percentiles are exact.
+     */
+    private static final class LatencyRecorder {
+
+        private final long[] latencies;
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+
+        LatencyRecorder(int capacity) {
+            this.latencies = new long[capacity];
+        }
+
+        void record(long latencyNanos, Exception failure) {
+            int index = count.getAndIncrement();
+            if (index < latencies.length) {
+                latencies[index] = latencyNanos;
+            }
+            if (failure != null) {
+                failures.incrementAndGet();
+                firstFailure.compareAndSet(null, failure);
+            }
+        }
+
+        void report(long elapsedNanos) {
+            int recorded = Math.min(count.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, recorded);
+            Arrays.sort(sorted);
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("Completed %d messages in %.1f s: %.1f messages/s, %d failed%n",
+                    recorded, seconds, recorded / seconds, failures.get());
+            for (double percentile : PERCENTILES) {
+                int index = (int) Math.min(recorded - 1, Math.ceil(percentile / 100 * recorded) - 1);
+                System.out.printf("  p%-5s %10.2f ms%n", percentile, index >= 0 ? sorted[index] / 1e6 : 0.0);
+            }
+            System.out.printf("  max    %10.2f ms%n", recorded > 0 ? sorted[recorded - 1] / 1e6 : 0.0);
+            if (firstFailure.get() != null) {
+                System.out.println("First failure:");
+                firstFailure.get().printStackTrace(System.out);
+            }
+        }
+    }
+}
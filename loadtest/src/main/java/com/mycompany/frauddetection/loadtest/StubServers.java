@@ -0,0 +1,264 @@
+package com.mycompany.frauddetection.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local stand-ins for S3, SQS, the SageMaker runtime, DynamoDB and the legacy {@code /checkFraud} API, each on its
+ * own port with its own {@link LatencyModel}. They speak just enough of each protocol for the service's clients:
+ * S3 GetObject (path style), SQS SendMessage and SendMessageBatch, SageMaker InvokeEndpoint, DynamoDB PutItem,
+ * DeleteItem and BatchWriteItem, and the legacy single and bulk lookups. Conditional writes always succeed, so every
+ * idempotency claim is granted.
+ */
+public class StubServers implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    private final byte[] objectContent;
+    private final boolean uniqueContent;
+    private final double aiFraudRate;
+    private final double legacyFraudRate;
+
+    private final String s3Endpoint;
+    private final String sqsEndpoint;
+    private final String sageMakerEndpoint;
+    private final String dynamoDbEndpoint;
+    private final String legacyEndpoint;
+
+    public StubServers(Properties properties) throws IOException {
+        int objectBytes = Integer.parseInt(properties.getProperty("stub.s3.object-bytes", "65536"));
+        this.objectContent = new byte[objectBytes];
+        byte[] alphabet = "abcdeghijkmnopqrstuvwxyz ".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < objectBytes; i++) {
+            objectContent[i] = alphabet[ThreadLocalRandom.current().nextInt(alphabet.length)];
+        }
+        this.uniqueContent = Boolean.parseBoolean(properties.getProperty("stub.s3.unique-content", "true"));
+        this.aiFraudRate = Double.parseDouble(properties.getProperty("stub.sagemaker.fraud-rate", "0.01"));
+        this.legacyFraudRate = Double.parseDouble(properties.getProperty("stub.legacy.fraud-rate", "0.01"));
+
+        s3Endpoint = start(LatencyModel.from(properties, "stub.s3"), this::getObject);
+        sqsEndpoint = start(LatencyModel.from(properties, "stub.sqs"), this::sqs);
+        sageMakerEndpoint = start(LatencyModel.from(properties, "stub.sagemaker"), this::invokeEndpoint);
+        dynamoDbEndpoint = start(LatencyModel.from(properties, "stub.dynamodb"), this::dynamoDb);
+        legacyEndpoint = start(LatencyModel.from(properties, "stub.legacy"), this::checkFraud);
+    }
+
+    public String s3Endpoint() {
+        return s3Endpoint;
+    }
+
+    public String sqsEndpoint() {
+        return sqsEndpoint;
+    }
+
+    public String sageMakerEndpoint() {
+        return sageMakerEndpoint;
+    }
+
+    public String dynamoDbEndpoint() {
+        return dynamoDbEndpoint;
+    }
+
+    public String legacyEndpoint() {
+        return legacyEndpoint;
+    }
+
+    @Override
+    public void close() {
+        servers.forEach(server -> server.stop(0));
+        executor.shutdownNow();
+    }
+
+    private String start(LatencyModel latency, Handler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", new DelayingHandler(latency, handler));
+        server.setExecutor(executor);
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // GET /<bucket>/<key>
+    private void getObject(HttpExchange exchange) throws IOException {
+        byte[] content = objectContent;
+        if (uniqueContent) {
+            // Distinct content per key, so the content verdict cache only answers repeated keys
+            content = content.clone();
+            byte[] tag = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(tag, 0, content, 0, Math.min(tag.length, content.length));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.getResponseHeaders().set("ETag", "\"" + UUID.randomUUID() + "\"");
+        respond(exchange, 200, content);
+    }
+
+    // AWS JSON protocol, X-Amz-Target: AmazonSQS.<operation>
+    private void sqs(HttpExchange exchange) throws IOException {
+        JsonNode request = readJson(exchange);
+        String operation = operation(exchange);
+        ObjectNode response = MAPPER.createObjectNode();
+        switch (operation) {
+            case "SendMessage" -> {
+                response.put("MessageId", UUID.randomUUID().toString());
+                response.put("MD5OfMessageBody", md5(request.path("MessageBody").asText()));
+            }
+            case "SendMessageBatch" -> {
+                ArrayNode successful = response.putArray("Successful");
+                for (JsonNode entry : request.path("Entries")) {
+                    successful.addObject()
+                            .put("Id", entry.path("Id").asText())
+                            .put("MessageId", UUID.randomUUID().toString())
+                            .put("MD5OfMessageBody", md5(entry.path("MessageBody").asText()));
+                }
+                response.putArray("Failed");
+            }
+            default -> {
+                // Receive, delete and visibility calls are not needed while the consumer is disabled
+            }
+        }
+        respondJson(exchange, "application/x-amz-json-1.0", response);
+    }
+
+    // POST /endpoints/<name>/invocations; a batch of instances gets one prediction each
+    private void invokeEndpoint(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        JsonNode instances = body.length > 0 && body[0] == '{' ? MAPPER.readTree(body).path("instances") : null;
+        if (instances != null && instances.isArray()) {
+            ObjectNode response = MAPPER.createObjectNode();
+            ArrayNode predictions = response.putArray("predictions");
+            for (int i = 0; i < instances.size(); i++) {
+                predictions.add(prediction());
+            }
+            respondJson(exchange, "application/json", response);
+        } else {
+            respondJson(exchange, "application/json", MAPPER.createObjectNode().put("prediction", prediction()));
+        }
+    }
+
+    // AWS JSON protocol, X-Amz-Target: DynamoDB_20120810.<operation>
+    private void dynamoDb(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        ObjectNode response = MAPPER.createObjectNode();
+        if (operation(exchange).equals("BatchWriteItem")) {
+            response.putObject("UnprocessedItems");
+        }
+        respondJson(exchange, "application/x-amz-json-1.0", response);
+    }
+
+    // GET /checkFraud?userId=<id> or POST /checkFraud/bulk with a JSON array of user ids
+    private void checkFraud(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestURI().getPath().endsWith("/bulk")) {
+            ObjectNode verdicts = MAPPER.createObjectNode();
+            for (JsonNode userId : readJson(exchange)) {
+                verdicts.put(userId.asText(), legacyVerdict());
+            }
+            respondJson(exchange, "application/json", verdicts);
+        } else {
+            respond(exchange, 200, Boolean.toString(legacyVerdict()).getBytes(StandardCharsets.UTF_8),
+                    "application/json");
+        }
+    }
+
+    private String prediction() {
+        return ThreadLocalRandom.current().nextDouble() < aiFraudRate ? "fraud" : "clean";
+    }
+
+    private boolean legacyVerdict() {
+        return ThreadLocalRandom.current().nextDouble() < legacyFraudRate;
+    }
+
+    private static String operation(HttpExchange exchange) {
+        String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+        return target == null ? "" : target.substring(target.indexOf('.') + 1);
+    }
+
+    private static JsonNode readJson(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            return MAPPER.readTree(body);
+        }
+    }
+
+    private static void respondJson(HttpExchange exchange, String contentType, JsonNode body) throws IOException {
+        respond(exchange, 200, MAPPER.writeValueAsBytes(body), contentType);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        respond(exchange, status, body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String md5(String messageBody) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(digest.digest(messageBody.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Delays every response by a sampled latency and fails the configured share of requests with a 500, which
+     * the AWS clients treat as retryable.
+     */
+    private record DelayingHandler(LatencyModel latency, Handler handler) implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) {
+            try {
+                LockSupport.parkNanos(latency.sampleNanos());
+                if (latency.fails()) {
+                    exchange.getRequestBody().readAllBytes();
+                    respond(exchange, 500, "{\"__type\":\"InternalFailure\",\"message\":\"stub failure\"}"
+                            .getBytes(StandardCharsets.UTF_8), "application/x-amz-json-1.0");
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                // The client sees a broken response, as it would from a failing dependency
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+CREATE TABLE IF NOT EXISTS user_fraud_status (
+    user_id VARCHAR(255) PRIMARY KEY,
+    is_fraud BOOLEAN NOT NULL,
+    updated_at TIMESTAMP NOT NULL
+);
@@ -2,8 +2,10 @@ package com.mycompany.frauddetection;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FraudDetectionServiceApplication {
 
     public static void main(String[] args) {
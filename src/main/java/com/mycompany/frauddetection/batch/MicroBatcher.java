@@ -0,0 +1,164 @@
+package com.mycompany.frauddetection.batch;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrently submitted items into batches and hands every batch to a {@link BatchHandler} in one go.
+ * A batch is dispatched as soon as it holds {@code maxBatchSize} items or {@code maxBatchBytes} bytes, or once its
+ * oldest item has waited for {@code maxWait}. Each submitter gets a future completed with its own result.
+ * <p>
+ * Batches are dispatched on the submitting thread, or on the batcher's timer thread when the wait expires, so the
+ * handler must not block; it should hand blocking work to an executor of its own.
+ * @param <T> type of the submitted items
+ * @param <R> type of the per-item results
+ */
+public class MicroBatcher<T, R> implements AutoCloseable {
+
+    /**
+     * Processes a whole batch.
+     */
+    @FunctionalInterface
+    public interface BatchHandler<T, R> {
+
+        /**
+         * @param batch items of the batch, in submission order
+         * @return one result per item, in the same order as the items, so items can succeed or fail on their own
+         */
+        List<CompletableFuture<R>> handle(List<T> batch);
+    }
+
+    private final int maxBatchSize;
+    private final long maxBatchBytes;
+    private final long maxWaitNanos;
+    private final BatchHandler<T, R> handler;
+    private final ScheduledExecutorService timer;
+
+    private final Object lock = new Object();
+    private List<Pending<T, R>> current = new ArrayList<>();
+    private long currentBytes;
+    private ScheduledFuture<?> flushTimer;
+    private boolean closed;
+
+    public MicroBatcher(String name, int maxBatchSize, long maxBatchBytes, Duration maxWait, BatchHandler<T, R> handler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.handler = handler;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name + "-batcher-");
+        threadFactory.setDaemon(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Add an item to the current batch.
+     * @param item the item
+     * @param bytes size the item contributes towards {@code maxBatchBytes}
+     * @return the item's result, once its batch was processed
+     */
+    public CompletableFuture<R> submit(T item, long bytes) {
+        Pending<T, R> pending = new Pending<>(item, new CompletableFuture<>());
+        List<Pending<T, R>> overflowing = null;
+        List<Pending<T, R>> full = null;
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Batcher is closed"));
+            }
+            // An item that does not fit any more closes the current batch and starts the next one
+            if (!current.isEmpty() && currentBytes + bytes > maxBatchBytes) {
+                overflowing = takeCurrent();
+            }
+            current.add(pending);
+            currentBytes += bytes;
+            if (current.size() >= maxBatchSize || currentBytes >= maxBatchBytes) {
+                full = takeCurrent();
+            } else if (current.size() == 1) {
+                flushTimer = timer.schedule(this::flushExpired, maxWaitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        dispatch(overflowing);
+        dispatch(full);
+        return pending.result();
+    }
+
+    /**
+     * Dispatch whatever is pending and stop accepting items.
+     */
+    @Override
+    public void close() {
+        List<Pending<T, R>> remaining;
+        synchronized (lock) {
+            closed = true;
+            remaining = takeCurrent();
+        }
+        dispatch(remaining);
+        timer.shutdownNow();
+    }
+
+    private void flushExpired() {
+        List<Pending<T, R>> expired;
+        synchronized (lock) {
+            expired = takeCurrent();
+        }
+        dispatch(expired);
+    }
+
+    // Must hold the lock
+    private List<Pending<T, R>> takeCurrent() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        if (current.isEmpty()) {
+            return null;
+        }
+        List<Pending<T, R>> batch = current;
+        current = new ArrayList<>();
+        currentBytes = 0;
+        return batch;
+    }
+
+    private void dispatch(List<Pending<T, R>> batch) {
+        if (batch == null) {
+            return;
+        }
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T, R> pending : batch) {
+            items.add(pending.item());
+        }
+        List<CompletableFuture<R>> results;
+        try {
+            results = handler.handle(items);
+            if (results.size() != batch.size()) {
+                throw new IllegalStateException("Expected " + batch.size() + " results but got " + results.size());
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<R> result = batch.get(i).result();
+            results.get(i).whenComplete((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        }
+    }
+
+    private record Pending<T, R>(T item, CompletableFuture<R> result) {
+    }
+}
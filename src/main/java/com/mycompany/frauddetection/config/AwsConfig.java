@@ -1,56 +1,245 @@
 package com.mycompany.frauddetection.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeAsyncClient;
 import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 
+import java.net.URI;
+import java.time.Duration;
+
 @Configuration
 public class AwsConfig {
 
     @Value("${aws.region}")
     private String awsRegion;
 
+    // Endpoint overrides point a client at a local stand-in, e.g. for load tests; empty means the regional endpoint
+    @Value("${aws.endpoint-override.s3:}")
+    private String s3Endpoint;
+
+    @Value("${aws.endpoint-override.sqs:}")
+    private String sqsEndpoint;
+
+    @Value("${aws.endpoint-override.sagemaker:}")
+    private String sageMakerEndpoint;
+
+    @Value("${aws.endpoint-override.dynamodb:}")
+    private String dynamoDbEndpoint;
+
+    // Transport settings shared by every AWS client; pools are per client and endpoint
+    @Value("${aws.http.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${aws.http.async.max-concurrency:200}")
+    private int asyncMaxConcurrency;
+
+    // 0 leaves the event loop at Netty's default size
+    @Value("${aws.http.async.event-loop-threads:0}")
+    private int asyncEventLoopThreads;
+
+    @Value("${aws.http.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${aws.http.socket-timeout:30s}")
+    private Duration socketTimeout;
+
+    @Value("${aws.http.connection-acquisition-timeout:2s}")
+    private Duration connectionAcquisitionTimeout;
+
+    @Value("${aws.http.connection-ttl:60s}")
+    private Duration connectionTtl;
+
+    @Value("${aws.http.connection-max-idle-time:30s}")
+    private Duration connectionMaxIdleTime;
+
+    @Value("${aws.http.tcp-keep-alive:true}")
+    private boolean tcpKeepAlive;
+
+    // An API call timeout bounds a whole call, retries included; max attempts counts the first attempt
+    @Value("${aws.client.s3.api-call-timeout:10s}")
+    private Duration s3ApiCallTimeout;
+
+    @Value("${aws.client.s3.max-attempts:3}")
+    private int s3MaxAttempts;
+
+    @Value("${aws.client.sqs.api-call-timeout:5s}")
+    private Duration sqsApiCallTimeout;
+
+    @Value("${aws.client.sqs.max-attempts:3}")
+    private int sqsMaxAttempts;
+
+    @Value("${aws.client.dynamodb.api-call-timeout:2s}")
+    private Duration dynamoDbApiCallTimeout;
+
+    @Value("${aws.client.dynamodb.max-attempts:3}")
+    private int dynamoDbMaxAttempts;
+
+    // Bounds a whole invocation, retries included, so a stalled endpoint cannot hold a caller indefinitely
+    @Value("${fraud.sagemaker.api-call-timeout:2s}")
+    private Duration sageMakerApiCallTimeout;
+
+    // Retries add load to an endpoint that may be struggling already; its circuit breaker handles the rest
+    @Value("${aws.client.sagemaker.max-attempts:2}")
+    private int sageMakerMaxAttempts;
+
+    @Value("${legacy.client.connect-timeout:1s}")
+    private Duration legacyConnectTimeout;
+
+    @Value("${legacy.client.read-timeout:2s}")
+    private Duration legacyReadTimeout;
+
+    @Value("${legacy.client.max-connections:500}")
+    private int legacyMaxConnections;
+
+    @Value("${legacy.client.pending-acquire-max-count:10000}")
+    private int legacyPendingAcquireMaxCount;
+
+    @Value("${legacy.client.max-idle-time:30s}")
+    private Duration legacyMaxIdleTime;
+
+    /**
+     * One credentials chain for every client, so credentials are resolved and refreshed once rather than per client.
+     */
+    @Bean
+    public AwsCredentialsProvider awsCredentialsProvider() {
+        return DefaultCredentialsProvider.builder().build();
+    }
+
+    /**
+     * The non-blocking transport of every async client: one Netty event loop, with a pool per endpoint. Shared
+     * clients are not closed by the SDK clients using them; the context closes this one.
+     */
+    @Bean
+    public SdkAsyncHttpClient awsAsyncHttpClient() {
+        return NettyNioAsyncHttpClient.builder()
+                .eventLoopGroupBuilder(SdkEventLoopGroup.builder()
+                        .numberOfThreads(asyncEventLoopThreads > 0 ? asyncEventLoopThreads : null))
+                .maxConcurrency(asyncMaxConcurrency)
+                .connectionTimeout(connectTimeout)
+                .readTimeout(socketTimeout)
+                .writeTimeout(socketTimeout)
+                .connectionAcquisitionTimeout(connectionAcquisitionTimeout)
+                .connectionTimeToLive(connectionTtl)
+                .connectionMaxIdleTime(connectionMaxIdleTime)
+                .tcpKeepAlive(tcpKeepAlive)
+                .build();
+    }
+
     @Bean
     public S3Client s3Client() {
-        return S3Client.builder()
-                .region(Region.of(awsRegion))
-                .credentialsProvider(DefaultCredentialsProvider.create())
+        return configure(S3Client.builder(), s3Endpoint, s3ApiCallTimeout, s3MaxAttempts)
+                .httpClientBuilder(syncHttpClient())
+                // A stand-in has no per-bucket host names
+                .forcePathStyle(!s3Endpoint.isBlank())
                 .build();
     }
 
     @Bean
     public SqsClient sqsClient() {
-        return SqsClient.builder()
-                .region(Region.of(awsRegion))  // Use region from properties
-                .credentialsProvider(DefaultCredentialsProvider.create())
+        return configure(SqsClient.builder(), sqsEndpoint, sqsApiCallTimeout, sqsMaxAttempts)
+                .httpClientBuilder(syncHttpClient())
                 .build();
     }
 
     @Bean
     public SageMakerRuntimeClient sageMakerRuntimeClient() {
-        return SageMakerRuntimeClient.builder()
-                .region(Region.of(awsRegion))
-                .credentialsProvider(DefaultCredentialsProvider.create())
+        return configure(SageMakerRuntimeClient.builder(), sageMakerEndpoint, sageMakerApiCallTimeout,
+                sageMakerMaxAttempts)
+                .httpClientBuilder(syncHttpClient())
+                .build();
+    }
+
+    @Bean
+    public SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient() {
+        return configure(SageMakerRuntimeAsyncClient.builder(), sageMakerEndpoint, sageMakerApiCallTimeout,
+                sageMakerMaxAttempts)
+                .httpClient(awsAsyncHttpClient())
                 .build();
     }
 
     @Bean
     public DynamoDbClient dynamoDbClient() {
-        return DynamoDbClient.builder()
-                .region(Region.of(awsRegion))
-                .credentialsProvider(DefaultCredentialsProvider.create())
+        return configure(DynamoDbClient.builder(), dynamoDbEndpoint, dynamoDbApiCallTimeout, dynamoDbMaxAttempts)
+                .httpClientBuilder(syncHttpClient())
                 .build();
     }
 
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        // The JDK client keeps connections alive and pools them, unlike the default HttpURLConnection factory
+        java.net.http.HttpClient httpClient = java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_1_1)
+                .connectTimeout(legacyConnectTimeout)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(legacyReadTimeout);
+        return new RestTemplate(requestFactory);
+    }
+
+    @Bean
+    public WebClient legacyWebClient() {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("legacy-system")
+                .maxConnections(legacyMaxConnections)
+                .pendingAcquireMaxCount(legacyPendingAcquireMaxCount)
+                .maxIdleTime(legacyMaxIdleTime)
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.toIntExact(legacyConnectTimeout.toMillis()))
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true)
+                .responseTimeout(legacyReadTimeout);
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * Apply the region, the shared credentials, the endpoint override and the service's timeout and retries.
+     */
+    private <B extends AwsClientBuilder<B, ?>> B configure(B builder, String endpoint, Duration apiCallTimeout,
+                                                          int maxAttempts) {
+        builder.region(Region.of(awsRegion))
+                .credentialsProvider(awsCredentialsProvider())
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .apiCallTimeout(apiCallTimeout)
+                        .retryStrategy(retryStrategy -> retryStrategy.maxAttempts(maxAttempts))
+                        .build());
+        return endpoint.isBlank() ? builder : builder.endpointOverride(URI.create(endpoint));
+    }
+
+    /**
+     * A pooled blocking transport; every sync client owns one, sized alike. Connections are recycled after their
+     * TTL so DNS changes are picked up, and a caller waits at most the acquisition timeout for one.
+     */
+    private ApacheHttpClient.Builder syncHttpClient() {
+        return ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionTimeout(connectTimeout)
+                .socketTimeout(socketTimeout)
+                .connectionAcquisitionTimeout(connectionAcquisitionTimeout)
+                .connectionTimeToLive(connectionTtl)
+                .connectionMaxIdleTime(connectionMaxIdleTime)
+                .tcpKeepAlive(tcpKeepAlive);
     }
 }
@@ -0,0 +1,24 @@
+package com.mycompany.frauddetection.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ConcurrencyConfig {
+
+    @Value("${fraud.checks.pool-size:64}")
+    private int fraudCheckPoolSize;
+
+    /**
+     * Worker pool the AI/ML, legacy and content checks of a message are fanned out to.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService fraudCheckExecutor() {
+        return Executors.newFixedThreadPool(fraudCheckPoolSize, new CustomizableThreadFactory("fraud-check-"));
+    }
+}
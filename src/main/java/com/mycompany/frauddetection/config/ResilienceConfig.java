@@ -0,0 +1,99 @@
+package com.mycompany.frauddetection.config;
+
+import com.mycompany.frauddetection.resilience.AdaptiveConcurrencyLimiter;
+import com.mycompany.frauddetection.resilience.CircuitBreaker;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class ResilienceConfig {
+
+    @Value("${fraud.resilience.sagemaker.slow-call-threshold:1s}")
+    private Duration sageMakerSlowCallThreshold;
+
+    @Value("${fraud.resilience.sagemaker.window-size:50}")
+    private int sageMakerWindowSize;
+
+    @Value("${fraud.resilience.sagemaker.minimum-calls:20}")
+    private int sageMakerMinimumCalls;
+
+    @Value("${fraud.resilience.sagemaker.failure-rate-threshold:0.5}")
+    private double sageMakerFailureRateThreshold;
+
+    @Value("${fraud.resilience.sagemaker.open-duration:10s}")
+    private Duration sageMakerOpenDuration;
+
+    @Value("${fraud.resilience.sagemaker.half-open-calls:5}")
+    private int sageMakerHalfOpenCalls;
+
+    @Value("${fraud.resilience.sagemaker.initial-limit:50}")
+    private int sageMakerInitialLimit;
+
+    @Value("${fraud.resilience.sagemaker.min-limit:4}")
+    private int sageMakerMinLimit;
+
+    @Value("${fraud.resilience.sagemaker.max-limit:200}")
+    private int sageMakerMaxLimit;
+
+    @Value("${fraud.resilience.sagemaker.backoff-ratio:0.9}")
+    private double sageMakerBackoffRatio;
+
+    @Value("${fraud.resilience.legacy.slow-call-threshold:500ms}")
+    private Duration legacySlowCallThreshold;
+
+    @Value("${fraud.resilience.legacy.window-size:50}")
+    private int legacyWindowSize;
+
+    @Value("${fraud.resilience.legacy.minimum-calls:20}")
+    private int legacyMinimumCalls;
+
+    @Value("${fraud.resilience.legacy.failure-rate-threshold:0.5}")
+    private double legacyFailureRateThreshold;
+
+    @Value("${fraud.resilience.legacy.open-duration:10s}")
+    private Duration legacyOpenDuration;
+
+    @Value("${fraud.resilience.legacy.half-open-calls:5}")
+    private int legacyHalfOpenCalls;
+
+    @Value("${fraud.resilience.legacy.initial-limit:50}")
+    private int legacyInitialLimit;
+
+    @Value("${fraud.resilience.legacy.min-limit:4}")
+    private int legacyMinLimit;
+
+    @Value("${fraud.resilience.legacy.max-limit:500}")
+    private int legacyMaxLimit;
+
+    @Value("${fraud.resilience.legacy.backoff-ratio:0.9}")
+    private double legacyBackoffRatio;
+
+    /**
+     * Guard of the SageMaker endpoint, configured under {@code fraud.resilience.sagemaker}.
+     */
+    @Bean
+    public DependencyGuard sageMakerGuard(MeterRegistry meterRegistry) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(sageMakerWindowSize, sageMakerMinimumCalls,
+                sageMakerFailureRateThreshold, sageMakerOpenDuration, sageMakerHalfOpenCalls);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(sageMakerInitialLimit, sageMakerMinLimit,
+                sageMakerMaxLimit, sageMakerSlowCallThreshold, sageMakerBackoffRatio);
+        return new DependencyGuard("sagemaker", circuitBreaker, limiter, sageMakerSlowCallThreshold, meterRegistry);
+    }
+
+    /**
+     * Guard of the legacy system, configured under {@code fraud.resilience.legacy}.
+     */
+    @Bean
+    public DependencyGuard legacyGuard(MeterRegistry meterRegistry) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(legacyWindowSize, legacyMinimumCalls,
+                legacyFailureRateThreshold, legacyOpenDuration, legacyHalfOpenCalls);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(legacyInitialLimit, legacyMinLimit,
+                legacyMaxLimit, legacySlowCallThreshold, legacyBackoffRatio);
+        return new DependencyGuard("legacy", circuitBreaker, limiter, legacySlowCallThreshold, meterRegistry);
+    }
+}
@@ -0,0 +1,138 @@
+package com.mycompany.frauddetection.io;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable heap or direct buffers in power-of-two size classes. Buffers larger than the biggest size
+ * class are allocated with their exact size and not pooled. The pool retains at most {@code maxRetainedBytes}
+ * of idle buffers; anything released beyond that is left to the garbage collector.
+ */
+@Component
+public class ByteBufferPool {
+
+    private static final int MIN_SIZE_CLASS_SHIFT = 12;
+
+    // Capacity used to start reading a stream whose length is unknown
+    private static final int UNKNOWN_LENGTH_CAPACITY = 64 * 1024;
+
+    private final boolean direct;
+    private final int maxPooledBufferBytes;
+    private final long maxRetainedBytes;
+    private final Queue<ByteBuffer>[] sizeClasses;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(@Value("${fraud.buffer-pool.direct:false}") boolean direct,
+                          @Value("${fraud.buffer-pool.max-pooled-buffer-bytes:16777216}") int maxPooledBufferBytes,
+                          @Value("${fraud.buffer-pool.max-retained-bytes:268435456}") long maxRetainedBytes) {
+        this.direct = direct;
+        this.maxPooledBufferBytes = Integer.highestOneBit(Math.max(maxPooledBufferBytes, 1 << MIN_SIZE_CLASS_SHIFT));
+        this.maxRetainedBytes = maxRetainedBytes;
+        int classes = Integer.numberOfTrailingZeros(this.maxPooledBufferBytes) - MIN_SIZE_CLASS_SHIFT + 1;
+        this.sizeClasses = new Queue[classes];
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Borrow a cleared buffer with at least {@code minCapacity} bytes of capacity.
+     * @param minCapacity capacity the caller needs
+     * @return a buffer to hand back with {@link #release(ByteBuffer)} once it is no longer used
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > maxPooledBufferBytes) {
+            return allocate(minCapacity);
+        }
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer buffer = sizeClasses[sizeClass].poll();
+        if (buffer == null) {
+            return allocate(1 << (sizeClass + MIN_SIZE_CLASS_SHIFT));
+        }
+        retainedBytes.addAndGet(-buffer.capacity());
+        return buffer.clear();
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}. The caller must not touch it afterwards.
+     * @param buffer the buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || capacity > maxPooledBufferBytes || Integer.bitCount(capacity) != 1
+                || capacity < 1 << MIN_SIZE_CLASS_SHIFT) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        sizeClasses[sizeClass(capacity)].offer(buffer);
+    }
+
+    /**
+     * Read a stream to its end into a pooled buffer. With a known length the buffer is sized once up front,
+     * so the content is copied exactly once, straight from the stream into the buffer.
+     * @param inputStream stream to read
+     * @param expectedLength length of the stream if known, otherwise {@code null}
+     * @return a flipped buffer holding the content, to be handed back with {@link #release(ByteBuffer)}
+     * @throws IOException if reading the stream fails
+     */
+    public ByteBuffer readFully(InputStream inputStream, Long expectedLength) throws IOException {
+        int initialCapacity = expectedLength != null ? Math.toIntExact(expectedLength) : UNKNOWN_LENGTH_CAPACITY;
+        ByteBuffer buffer = acquire(Math.max(initialCapacity, 1));
+        ReadableByteChannel channel = direct ? Channels.newChannel(inputStream) : null;
+        try {
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    // Make sure the stream really ended before growing the buffer
+                    int next = inputStream.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    buffer = grow(buffer);
+                    buffer.put((byte) next);
+                }
+                int read = direct
+                        ? channel.read(buffer)
+                        : inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read == -1) {
+                    break;
+                }
+                if (!direct) {
+                    buffer.position(buffer.position() + read);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release(buffer);
+            throw e;
+        }
+        return buffer.flip();
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer larger = acquire(Math.multiplyExact(buffer.capacity(), 2));
+        larger.put(buffer.flip());
+        release(buffer);
+        return larger;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1 << MIN_SIZE_CLASS_SHIFT) - 1);
+        return shift - MIN_SIZE_CLASS_SHIFT;
+    }
+}
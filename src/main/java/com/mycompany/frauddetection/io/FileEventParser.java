@@ -0,0 +1,232 @@
+package com.mycompany.frauddetection.io;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mycompany.frauddetection.record.FileReference;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the files to check from an input queue message in a single pass of a streaming parser, without building
+ * a JSON tree. Two kinds of message are understood:
+ * <ul>
+ *     <li>our envelope, {@code {"bucket":"...","key":"...","userId":"..."}}, optionally with the object's
+ *     {@code "versionId"};</li>
+ *     <li>S3 event notifications, {@code {"Records":[...]}}, with any number of records. Only
+ *     {@code ObjectCreated} events are returned; object keys are URL-decoded. The notifications carry no user of
+ *     ours. If uploads are keyed by user, e.g. {@code incoming/<userId>/<file>}, the user id is taken from the
+ *     configured segment of the key. Otherwise the uploading principal ({@code userIdentity.principalId}) stands in
+ *     for the user id; a created object without one is rejected, as there is nobody to check. The
+ *     {@code s3:TestEvent} S3 sends when notifications are set up yields no files.</li>
+ * </ul>
+ * A principal is not necessarily one user: uploads through a shared role or presigned URLs all carry the principal
+ * that signed them. Files of principal-derived users are therefore marked as not tracked, so they are neither
+ * throttled nor short-circuited as known fraud. The legacy lookup and the stored fraud status are still keyed by
+ * the principal, which is all these notifications say about the uploader.
+ * The version of a file is its version id if the bucket is versioned, otherwise, in S3 events, its ETag qualified
+ * with the event's sequencer, which tells two uploads of the same content apart but not two deliveries of the same
+ * event. A bare ETag would take a re-upload of the same bytes for a duplicate, so without either the file has no
+ * version and is not deduplicated.
+ */
+public final class FileEventParser {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final String OBJECT_CREATED = "ObjectCreated:";
+
+    private FileEventParser() {
+    }
+
+    /**
+     * @param message body of the input queue message
+     * @return the files the message announces, possibly none
+     * @throws IllegalArgumentException if the message is not one of the understood kinds
+     */
+    public static List<FileReference> parse(String message) {
+        return parse(message, -1);
+    }
+
+    /**
+     * @param message body of the input queue message
+     * @param userKeySegment zero-based segment of an S3 object key, split at {@code /}, that holds the user id;
+     *                       negative if keys do not name the user
+     * @return the files the message announces, possibly none
+     * @throws IllegalArgumentException if the message is not one of the understood kinds
+     */
+    public static List<FileReference> parse(String message, int userKeySegment) {
+        try (JsonParser parser = JSON.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Message is not a JSON object");
+            }
+            String bucket = null;
+            String key = null;
+            String userId = null;
+            String versionId = null;
+            List<FileReference> records = null;
+            boolean testEvent = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "bucket" -> bucket = text(parser, value);
+                    case "key" -> key = text(parser, value);
+                    case "userId" -> userId = text(parser, value);
+                    case "versionId" -> versionId = text(parser, value);
+                    case "Records" -> records = parseRecords(parser, value, userKeySegment);
+                    case "Event" -> testEvent = "s3:TestEvent".equals(text(parser, value));
+                    default -> parser.skipChildren();
+                }
+            }
+            if (records != null) {
+                return records;
+            }
+            if (testEvent) {
+                return List.of();
+            }
+            if (bucket == null || key == null || isBlank(userId)) {
+                throw new IllegalArgumentException("Message has neither S3 event records nor bucket, key and userId");
+            }
+            return List.of(new FileReference(bucket, key, userId, versionId));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Message is not valid JSON", e);
+        }
+    }
+
+    private static List<FileReference> parseRecords(JsonParser parser, JsonToken value, int userKeySegment)
+            throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("S3 event Records is not an array");
+        }
+        List<FileReference> records = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String eventName = null;
+            String bucket = null;
+            String key = null;
+            String version = null;
+            String principalId = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken fieldValue = parser.nextToken();
+                switch (field) {
+                    case "eventName" -> eventName = text(parser, fieldValue);
+                    case "userIdentity" -> principalId = nestedText(parser, fieldValue, "principalId");
+                    case "s3" -> {
+                        // "s3": {"bucket": {"name": ...}, "object": {"key": ..., "eTag": ..., ...}}
+                        expectObject(fieldValue);
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String s3Field = parser.currentName();
+                            JsonToken s3Value = parser.nextToken();
+                            switch (s3Field) {
+                                case "bucket" -> bucket = nestedText(parser, s3Value, "name");
+                                case "object" -> {
+                                    S3Object object = parseObject(parser, s3Value);
+                                    key = object.key();
+                                    version = object.version();
+                                }
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (eventName != null && !eventName.startsWith(OBJECT_CREATED)) {
+                continue;
+            }
+            if (bucket == null || key == null) {
+                throw new IllegalArgumentException("S3 event record has no bucket name or object key");
+            }
+            String decodedKey = URLDecoder.decode(key, StandardCharsets.UTF_8);
+            String keyUserId = keySegment(decodedKey, userKeySegment);
+            if (keyUserId != null) {
+                records.add(new FileReference(bucket, decodedKey, keyUserId, version));
+                continue;
+            }
+            if (isBlank(principalId)) {
+                throw new IllegalArgumentException("S3 event record for " + bucket + '/' + key
+                        + " has no userIdentity.principalId");
+            }
+            records.add(new FileReference(bucket, decodedKey, principalId, version, false));
+        }
+        return records;
+    }
+
+    private static S3Object parseObject(JsonParser parser, JsonToken value) throws IOException {
+        expectObject(value);
+        String key = null;
+        String versionId = null;
+        String eTag = null;
+        String sequencer = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            switch (field) {
+                case "key" -> key = text(parser, fieldValue);
+                case "versionId" -> versionId = text(parser, fieldValue);
+                case "eTag" -> eTag = text(parser, fieldValue);
+                case "sequencer" -> sequencer = text(parser, fieldValue);
+                default -> parser.skipChildren();
+            }
+        }
+        if (versionId != null) {
+            return new S3Object(key, versionId);
+        }
+        return new S3Object(key, eTag != null && sequencer != null ? eTag + '@' + sequencer : null);
+    }
+
+    private record S3Object(String key, String version) {
+    }
+
+    // Reads {"<name>": "..."} and returns the value of the one field, skipping everything else
+    private static String nestedText(JsonParser parser, JsonToken value, String name) throws IOException {
+        expectObject(value);
+        String text = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (name.equals(field)) {
+                text = text(parser, fieldValue);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return text;
+    }
+
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!value.isScalarValue()) {
+            throw new IllegalArgumentException("Field " + parser.currentName() + " is not a scalar value");
+        }
+        return parser.getText();
+    }
+
+    // The segment at the index, unless it is the file name itself or there is no such segment
+    private static String keySegment(String key, int index) {
+        if (index < 0) {
+            return null;
+        }
+        String[] segments = key.split("/", -1);
+        if (index >= segments.length - 1 || segments[index].isBlank()) {
+            return null;
+        }
+        return segments[index];
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.isBlank();
+    }
+
+    private static void expectObject(JsonToken value) {
+        if (value != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Unexpected " + value + " where a JSON object belongs");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mycompany.frauddetection.io;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Request bodies for the SageMaker endpoint, built straight from the file content. A body is either the raw bytes,
+ * copied once, or the {@code {"input":"<base64>"}} JSON document encoded into a single array of exactly the
+ * payload size, without intermediate strings. Several inputs are sent together as
+ * {@code {"instances":[{"input":"<base64>"},...]}}. {@link SdkBytes} is always array-backed, and file content is
+ * only handed out as read-only views, so either body is a copy that no longer refers to the content.
+ */
+public final class InferencePayloads {
+
+    /**
+     * Largest request body a real-time SageMaker endpoint accepts, 6 MB.
+     */
+    public static final int MAX_REQUEST_BYTES = 6 * 1024 * 1024;
+
+    // {"instances":[ and ]} around the documents of a batch
+    private static final int BATCH_OVERHEAD = 16;
+
+    // {"input":" and "} around the Base64 of an input
+    private static final int DOCUMENT_OVERHEAD = 12;
+
+    /**
+     * Most input bytes whose {@code {"input":"<base64>"}} document fits into one request, alone or as the only
+     * instance of a batch.
+     */
+    public static final int MAX_INPUT_BYTES = (MAX_REQUEST_BYTES - BATCH_OVERHEAD - DOCUMENT_OVERHEAD) / 4 * 3;
+
+    /**
+     * Most bytes the documents of one batch, with the separators between them, may take up.
+     */
+    public static final int MAX_BATCH_DOCUMENT_BYTES = MAX_REQUEST_BYTES - BATCH_OVERHEAD;
+
+    private static final byte[] JSON_PREFIX = "{\"input\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_PREFIX = "{\"instances\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_SUFFIX = "]}".getBytes(StandardCharsets.US_ASCII);
+
+    // Content is encoded through a chunk of this size; a multiple of 3 needs no padding in between
+    private static final int CHUNK_SIZE = 3 * 8192;
+
+    private InferencePayloads() {
+    }
+
+    /**
+     * A copy of the remaining bytes of the content.
+     */
+    public static SdkBytes raw(ByteBuffer content) {
+        return SdkBytes.fromByteBuffer(content);
+    }
+
+    /**
+     * Encode the remaining bytes of the content as {@code {"input":"<base64>"}}.
+     */
+    public static SdkBytes base64Json(ByteBuffer content) {
+        byte[] payload = new byte[base64JsonLength(content.remaining())];
+        writeBase64Json(content, payload, 0);
+        return SdkBytes.fromByteArrayUnsafe(payload);
+    }
+
+    /**
+     * Encode the remaining bytes of every input as one {@code {"instances":[...]}} document, in order.
+     */
+    public static SdkBytes base64JsonBatch(List<ByteBuffer> inputs) {
+        int length = BATCH_PREFIX.length + BATCH_SUFFIX.length + Math.max(0, inputs.size() - 1);
+        for (ByteBuffer input : inputs) {
+            length += base64JsonLength(input.remaining());
+        }
+        byte[] payload = new byte[length];
+        System.arraycopy(BATCH_PREFIX, 0, payload, 0, BATCH_PREFIX.length);
+        int position = BATCH_PREFIX.length;
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i > 0) {
+                payload[position++] = ',';
+            }
+            position = writeBase64Json(inputs.get(i), payload, position);
+        }
+        System.arraycopy(BATCH_SUFFIX, 0, payload, position, BATCH_SUFFIX.length);
+        return SdkBytes.fromByteArrayUnsafe(payload);
+    }
+
+    /**
+     * @return size of the {@code {"input":"<base64>"}} document for an input of the given size
+     */
+    public static int base64JsonLength(int inputBytes) {
+        return JSON_PREFIX.length + 4 * ((inputBytes + 2) / 3) + JSON_SUFFIX.length;
+    }
+
+    // Writes {"input":"<base64>"} at the offset and returns the offset after it
+    private static int writeBase64Json(ByteBuffer content, byte[] payload, int offset) {
+        ByteBuffer input = content.slice();
+        int end = offset + base64JsonLength(input.remaining());
+        System.arraycopy(JSON_PREFIX, 0, payload, offset, JSON_PREFIX.length);
+        try (OutputStream encoder = Base64.getEncoder().wrap(new ArrayWriter(payload, offset + JSON_PREFIX.length))) {
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, input.remaining())];
+            while (input.hasRemaining()) {
+                int length = Math.min(chunk.length, input.remaining());
+                input.get(chunk, 0, length);
+                encoder.write(chunk, 0, length);
+            }
+        } catch (IOException e) {
+            // Writing into an array does not fail
+            throw new UncheckedIOException(e);
+        }
+        System.arraycopy(JSON_SUFFIX, 0, payload, end - JSON_SUFFIX.length, JSON_SUFFIX.length);
+        return end;
+    }
+
+    /**
+     * Writes into a pre-sized array; closing it is a no-op so the Base64 stream can flush its padding into it.
+     */
+    private static final class ArrayWriter extends OutputStream {
+
+        private final byte[] target;
+        private int position;
+
+        ArrayWriter(byte[] target, int position) {
+            this.target = target;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) {
+            target[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            System.arraycopy(bytes, offset, target, position, length);
+            position += length;
+        }
+    }
+}
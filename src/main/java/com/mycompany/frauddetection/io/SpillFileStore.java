@@ -0,0 +1,85 @@
+package com.mycompany.frauddetection.io;
+
+import com.mycompany.frauddetection.record.FileContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps large files off the heap: the content is streamed to a temp file in the spill directory and exposed
+ * as a read-only {@link MappedByteBuffer}. The file is deleted once the {@link FileContent} is released.
+ * A single mapping is limited to 2 GB.
+ */
+@Component
+public class SpillFileStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillFileStore.class);
+
+    private static final String SPILL_FILE_PREFIX = "s3-object-";
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+
+    private final Path directory;
+    private final long thresholdBytes;
+
+    public SpillFileStore(@Value("${fraud.spill.directory:${java.io.tmpdir}/fraud-detection-spill}") Path directory,
+                          @Value("${fraud.spill.threshold-bytes:33554432}") long thresholdBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.thresholdBytes = thresholdBytes;
+        deleteStaleFiles();
+    }
+
+    /**
+     * @param contentLength length of the content if known, otherwise {@code null}
+     * @return whether content of this length should be spilled to disk instead of being read onto the heap
+     */
+    public boolean shouldSpill(Long contentLength) {
+        return contentLength != null && contentLength > thresholdBytes;
+    }
+
+    /**
+     * Stream the content to a temp file and map it into memory.
+     * @param inputStream content to spill, read to its end
+     * @param contentType content type of the file
+     * @return the mapped content; closing its last reference deletes the temp file
+     * @throws IOException if writing or mapping the temp file fails
+     */
+    public FileContent spill(InputStream inputStream, String contentType) throws IOException {
+        Path file = Files.createTempFile(directory, SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+        try {
+            Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+            // The mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new FileContent(mapped, contentType, () -> delete(file));
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(file);
+            throw e;
+        }
+    }
+
+    private void deleteStaleFiles() throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, SPILL_FILE_PREFIX + "*" + SPILL_FILE_SUFFIX)) {
+            stale.forEach(this::delete);
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete spill file {}", file, e);
+        }
+    }
+}
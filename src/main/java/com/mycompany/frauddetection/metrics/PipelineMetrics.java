@@ -0,0 +1,167 @@
+package com.mycompany.frauddetection.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Latency of every stage of the pipeline, from parsing a message to publishing its verdict, so the dependency
+ * setting the tail latency can be told apart. Per stage this keeps
+ * <ul>
+ *     <li>{@code fraud.pipeline.stage}: a timer with a percentile histogram, tagged with the outcome;</li>
+ *     <li>{@code fraud.pipeline.in.flight}: a gauge of the calls currently running;</li>
+ *     <li>{@code fraud.pipeline.errors}: a counter of failed calls, tagged with the exception type;</li>
+ *     <li>{@code fraud.pipeline.payload}: a distribution of payload sizes, for stages that move payloads.</li>
+ * </ul>
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String PARSE = "parse";
+    public static final String S3_FETCH = "s3_fetch";
+    public static final String SAGEMAKER = "sagemaker";
+    public static final String LEGACY = "legacy";
+    public static final String CONTENT_SCAN = "content_scan";
+    public static final String NOSQL_WRITE = "nosql_write";
+    public static final String SQL_WRITE = "sql_write";
+    public static final String SQS_PUBLISH = "sqs_publish";
+    public static final String MESSAGE = "message";
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    private final MeterRegistry meterRegistry;
+
+    // Meters are looked up on every call, so they are kept here rather than re-registered
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> payloadSizes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Time a blocking call of a stage.
+     * @param stage stage the call belongs to
+     * @param call the call itself
+     * @return what the call returned
+     * @throws E whatever the call threw, after counting it
+     */
+    public <T, E extends Exception> T time(String stage, StageCall<T, E> call) throws E {
+        long startNanos = start(stage);
+        try {
+            T result = call.call();
+            stop(stage, startNanos, null);
+            return result;
+        } catch (Throwable t) {
+            stop(stage, startNanos, t);
+            throw t;
+        }
+    }
+
+    /**
+     * Time a blocking call of a stage that returns nothing and throws no checked exceptions.
+     */
+    public void record(String stage, Runnable call) {
+        long startNanos = start(stage);
+        try {
+            call.run();
+            stop(stage, startNanos, null);
+        } catch (RuntimeException | Error e) {
+            stop(stage, startNanos, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Time a non-blocking call of a stage, from the call until its future completes.
+     */
+    public <T> CompletableFuture<T> timeAsync(String stage, Supplier<CompletableFuture<T>> call) {
+        long startNanos = start(stage);
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            stop(stage, startNanos, e);
+            throw e;
+        }
+        result.whenComplete((value, failure) -> stop(stage, startNanos, failure));
+        return result;
+    }
+
+    /**
+     * Record the size of a payload read or sent by a stage.
+     */
+    public void recordPayloadSize(String stage, long bytes) {
+        payloadSizes.computeIfAbsent(stage, key -> DistributionSummary.builder("fraud.pipeline.payload")
+                        .tag("stage", key)
+                        .baseUnit("bytes")
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(bytes);
+    }
+
+    /**
+     * Count an item a stage gave up on after exhausting its retries, e.g. a write-behind record that was never
+     * written.
+     */
+    public void recordDropped(String stage) {
+        meterRegistry.counter("fraud.pipeline.dropped", "stage", stage).increment();
+    }
+
+    private long start(String stage) {
+        inFlight(stage).incrementAndGet();
+        return System.nanoTime();
+    }
+
+    private void stop(String stage, long startNanos, Throwable failure) {
+        inFlight(stage).decrementAndGet();
+        timer(stage, failure == null ? SUCCESS : ERROR).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (failure != null) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            meterRegistry.counter("fraud.pipeline.errors", "stage", stage,
+                    "exception", cause.getClass().getSimpleName()).increment();
+        }
+    }
+
+    private Timer timer(String stage, String outcome) {
+        return timers.computeIfAbsent(stage + '/' + outcome, key -> Timer.builder("fraud.pipeline.stage")
+                .tag("stage", stage)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry));
+    }
+
+    private AtomicInteger inFlight(String stage) {
+        return inFlight.computeIfAbsent(stage, key -> {
+            AtomicInteger calls = new AtomicInteger();
+            Gauge.builder("fraud.pipeline.in.flight", calls, AtomicInteger::get)
+                    .tag("stage", key)
+                    .register(meterRegistry);
+            return calls;
+        });
+    }
+
+    /**
+     * A call of a stage, throwing only the exceptions the call itself declares.
+     */
+    @FunctionalInterface
+    public interface StageCall<T, E extends Exception> {
+        T call() throws E;
+    }
+}
@@ -0,0 +1,51 @@
+package com.mycompany.frauddetection.record;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * Result of a single fraud check.
+ * @param fraud verdict of the check
+ * @param outcome how the verdict was reached, {@code null} if not known
+ * @param durationMicros time from starting the check to its verdict
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CheckResult(boolean fraud, Outcome outcome, long durationMicros) {
+
+    public enum Outcome {
+        /** The check answered within the deadline */
+        COMPLETED,
+        /** The check missed the deadline; the verdict is its fallback */
+        TIMEOUT,
+        /** The verdict was remembered from earlier content */
+        CACHED,
+        /** The dependency was not called, its circuit breaker being open or its limit reached; the verdict is its fallback */
+        REJECTED,
+        /** The check was not run, the file's verdict being decided already; the check has no verdict of its own */
+        SKIPPED;
+
+        /**
+         * @return the outcome as used in metric tags and result messages
+         */
+        @JsonValue
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @return the verdict of the check, or {@code null} if it was skipped and has none
+     */
+    public Boolean verdict() {
+        return outcome == Outcome.SKIPPED ? null : fraud;
+    }
+
+    /**
+     * A verdict with nothing known about how it was reached.
+     */
+    public static CheckResult of(boolean fraud) {
+        return new CheckResult(fraud, null, 0);
+    }
+}
@@ -1,4 +1,81 @@
 package com.mycompany.frauddetection.record;
 
-public record FileContent(byte[] fileContent, String contentType) {
+import com.mycompany.frauddetection.io.ByteBufferInputStream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content of a file together with its content type. The bytes are only ever read through views
+ * ({@link #asByteBuffer()}, {@link #asInputStream()}), never copied.
+ * <p>
+ * The content lives either on the heap, in a pooled buffer, or in a memory-mapped temp file for large files.
+ * Either way it is reference counted: every reader that may outlive the owner takes its own reference with
+ * {@link #retain()}, and the storage is released once the last reference is closed.
+ */
+public final class FileContent implements AutoCloseable {
+
+    private final ByteBuffer content;
+    private final String contentType;
+    private final Runnable release;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public FileContent(byte[] fileContent, String contentType) {
+        this(ByteBuffer.wrap(fileContent), contentType, () -> { });
+    }
+
+    /**
+     * @param content buffer holding the content between its position and limit
+     * @param contentType content type of the file
+     * @param release invoked once, when the last reference is closed
+     */
+    public FileContent(ByteBuffer content, String contentType, Runnable release) {
+        this.content = content;
+        this.contentType = contentType;
+        this.release = release;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public int size() {
+        return content.remaining();
+    }
+
+    /**
+     * @return a read-only view of the content with its own position and limit
+     */
+    public ByteBuffer asByteBuffer() {
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a stream over the content
+     */
+    public InputStream asInputStream() {
+        return new ByteBufferInputStream(asByteBuffer());
+    }
+
+    /**
+     * Take an additional reference, to be closed independently of this one.
+     * @return this content
+     */
+    public FileContent retain() {
+        references.updateAndGet(count -> {
+            if (count <= 0) {
+                throw new IllegalStateException("File content has already been released");
+            }
+            return count + 1;
+        });
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            release.run();
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package com.mycompany.frauddetection.record;
+
+/**
+ * File to check, as announced by a message on the input queue.
+ * @param bucket bucket holding the file
+ * @param key key of the file
+ * @param userId user the file is checked for
+ * @param version what tells this upload of the key from others, the object's version id or its ETag qualified
+ *                with the event's sequencer, or {@code null} if the message does not say
+ * @param userTracked whether the user id names one user, whose uploads are throttled and whose verdicts are
+ *                    remembered; {@code false} for an uploading principal standing in for the user
+ */
+public record FileReference(String bucket, String key, String userId, String version, boolean userTracked) {
+
+    public FileReference(String bucket, String key, String userId) {
+        this(bucket, key, userId, null);
+    }
+
+    public FileReference(String bucket, String key, String userId, String version) {
+        this(bucket, key, userId, version, true);
+    }
+}
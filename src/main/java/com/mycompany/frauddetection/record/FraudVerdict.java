@@ -0,0 +1,47 @@
+package com.mycompany.frauddetection.record;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Result of fraud detection for one file, as published to the result queue.
+ * @param userId user who uploaded the file
+ * @param ai result of the SageMaker check
+ * @param legacy result of the legacy system check
+ * @param content result of the content rules check
+ */
+public record FraudVerdict(String userId, CheckResult ai, CheckResult legacy, CheckResult content) {
+
+    public FraudVerdict(String userId, boolean aiFraud, boolean legacyFraud, boolean contentFraud) {
+        this(userId, CheckResult.of(aiFraud), CheckResult.of(legacyFraud), CheckResult.of(contentFraud));
+    }
+
+    /**
+     * @return whether any check flagged the file
+     */
+    @JsonProperty
+    public boolean fraud() {
+        return ai.fraud() || legacy.fraud() || content.fraud();
+    }
+
+    // Flat verdicts, as published before per-check results were added; a skipped check has none and is left out,
+    // so it cannot be mistaken for a clean verdict
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Boolean aiFraudCheck() {
+        return ai.verdict();
+    }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Boolean legacyFraudCheck() {
+        return legacy.verdict();
+    }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Boolean contentFraudCheck() {
+        return content.verdict();
+    }
+}
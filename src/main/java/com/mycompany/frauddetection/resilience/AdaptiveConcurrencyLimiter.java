@@ -0,0 +1,91 @@
+package com.mycompany.frauddetection.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts to the latency of a dependency, additive-increase/multiplicative-decrease: a call
+ * that answers within the latency threshold raises the limit by {@code 1 / limit}, i.e. by one per limit's worth of
+ * calls, while a call that fails or is slow cuts it by the backoff ratio. Cuts are at most one per threshold
+ * interval, so a burst of slow answers to calls made under the old limit counts once.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private long lastDecreaseNanos;
+
+    /**
+     * @param initialLimit limit to start with
+     * @param minLimit lowest the limit goes, at least one
+     * @param maxLimit highest the limit goes
+     * @param latencyThreshold latency above which a call counts as a sign of overload
+     * @param backoffRatio factor, between 0 and 1, the limit is multiplied by on overload
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold,
+                                      double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecreaseNanos = System.nanoTime() - latencyThresholdNanos;
+    }
+
+    /**
+     * @return whether a call may be made now; every permitted call must be followed by
+     * {@link #release(long, boolean)} or {@link #cancel()}
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a permitted call and adapt the limit to how it went.
+     * @param latencyNanos how long the call took
+     * @param failed whether the call failed
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (failed || latencyNanos > latencyThresholdNanos) {
+                long now = System.nanoTime();
+                if (now - lastDecreaseNanos >= latencyThresholdNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = now;
+                }
+            } else if (current * 2 >= limit) {
+                // Only grow while the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+    }
+
+    /**
+     * Release a permitted call that was never made.
+     */
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,128 @@
+package com.mycompany.frauddetection.resilience;
+
+import java.time.Duration;
+
+/**
+ * Count-based circuit breaker. It opens once at least {@code minimumCalls} of the last {@code windowSize} calls
+ * were made and the share of failed ones reaches the threshold; callers then fail fast for the open duration.
+ * After that a few probe calls are let through: if all of them succeed the breaker closes, otherwise it opens
+ * again. Every permit carries the generation of the state it was granted in, and results of calls permitted
+ * before the last state change are ignored, so a slow call made while closed cannot count as a probe.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when the call may not be made.
+     */
+    public static final long NOT_PERMITTED = -1;
+
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int failures;
+    private int next;
+    private long openUntilNanos;
+    private int probesLeft;
+    private int probesPending;
+    // Changes with every state transition
+    private long generation;
+
+    /**
+     * @param windowSize number of most recent calls the failure rate is computed over
+     * @param minimumCalls calls needed in the window before the breaker may open
+     * @param failureRateThreshold share of failed calls, between 0 and 1, that opens the breaker
+     * @param openDuration how long the breaker stays open before probing
+     * @param halfOpenCalls probe calls let through after the open duration
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration,
+                          int halfOpenCalls) {
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return a permit if a call may be made now, otherwise {@link #NOT_PERMITTED}; every permitted call must be
+     * followed by {@link #onResult(long, boolean)}
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openUntilNanos < 0) {
+                return NOT_PERMITTED;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            probesLeft = halfOpenCalls;
+            probesPending = halfOpenCalls;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesLeft == 0) {
+                return NOT_PERMITTED;
+            }
+            probesLeft--;
+        }
+        return generation;
+    }
+
+    /**
+     * Record the result of a permitted call.
+     * @param permit what {@link #tryAcquire()} returned for the call
+     * @param failed whether the call failed or was too slow
+     */
+    public synchronized void onResult(long permit, boolean failed) {
+        if (permit != generation) {
+            // Permitted before the last state change, e.g. a call made before the breaker opened
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (failed) {
+                open();
+            } else if (--probesPending == 0) {
+                close();
+            }
+            return;
+        }
+        if (calls == window.length) {
+            failures -= window[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        window[next] = failed;
+        failures += failed ? 1 : 0;
+        next = (next + 1) % window.length;
+        if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openUntilNanos = System.nanoTime() + openNanos;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+}
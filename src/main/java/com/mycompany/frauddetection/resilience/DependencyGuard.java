@@ -0,0 +1,126 @@
+package com.mycompany.frauddetection.resilience;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Guards the calls to one dependency with a {@link CircuitBreaker} and an {@link AdaptiveConcurrencyLimiter}, so a
+ * slow or failing dependency sheds load instead of tying up every caller. Calls that are not made fail with a
+ * {@link DependencyUnavailableException}, which callers answer with their fallback verdict. Calls slower than the
+ * slow-call threshold count as failures for the breaker and as overload for the limiter.
+ */
+public class DependencyGuard {
+
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final long slowCallNanos;
+    private final MeterRegistry meterRegistry;
+
+    public DependencyGuard(String name, CircuitBreaker circuitBreaker, AdaptiveConcurrencyLimiter limiter,
+                           Duration slowCallThreshold, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.limiter = limiter;
+        this.slowCallNanos = slowCallThreshold.toNanos();
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("fraud.dependency.limit", limiter, AdaptiveConcurrencyLimiter::limit)
+                .tag("dependency", name)
+                .register(meterRegistry);
+        Gauge.builder("fraud.dependency.in.flight", limiter, AdaptiveConcurrencyLimiter::inFlight)
+                .tag("dependency", name)
+                .register(meterRegistry);
+        Gauge.builder("fraud.dependency.state", circuitBreaker, breaker -> breaker.state().ordinal())
+                .tag("dependency", name)
+                .description("0 closed, 1 half-open, 2 open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Make a blocking call, if the dependency is available.
+     * @throws DependencyUnavailableException if the call was not made
+     * @throws E whatever the call threw
+     */
+    public <T, E extends Exception> T call(GuardedCall<T, E> call) throws E {
+        long permit = acquire();
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            release(permit, startNanos, failed);
+        }
+    }
+
+    /**
+     * Make a non-blocking call, if the dependency is available. The call counts as in flight until its future
+     * completes; a future cancelled by the caller, e.g. on a timeout, counts as failed.
+     * @return the call's future, or one failed with a {@link DependencyUnavailableException}
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        long permit;
+        try {
+            permit = acquire();
+        } catch (DependencyUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            release(permit, startNanos, true);
+            throw e;
+        }
+        result.whenComplete((value, failure) -> release(permit, startNanos, failure != null));
+        return result;
+    }
+
+    public CircuitBreaker.State state() {
+        return circuitBreaker.state();
+    }
+
+    public int limit() {
+        return limiter.limit();
+    }
+
+    /**
+     * @return the circuit breaker's permit for the call
+     */
+    private long acquire() {
+        if (!limiter.tryAcquire()) {
+            throw reject("concurrency limit of " + limiter.limit() + " reached", "limit");
+        }
+        long permit = circuitBreaker.tryAcquire();
+        if (permit == CircuitBreaker.NOT_PERMITTED) {
+            limiter.cancel();
+            throw reject("circuit breaker open", "open");
+        }
+        return permit;
+    }
+
+    private void release(long permit, long startNanos, boolean failed) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        circuitBreaker.onResult(permit, failed || latencyNanos > slowCallNanos);
+        limiter.release(latencyNanos, failed);
+    }
+
+    private DependencyUnavailableException reject(String reason, String tag) {
+        meterRegistry.counter("fraud.dependency.rejections", "dependency", name, "reason", tag).increment();
+        return new DependencyUnavailableException(name, reason);
+    }
+
+    /**
+     * A call to the dependency, throwing only the exceptions the call itself declares.
+     */
+    @FunctionalInterface
+    public interface GuardedCall<T, E extends Exception> {
+        T call() throws E;
+    }
+}
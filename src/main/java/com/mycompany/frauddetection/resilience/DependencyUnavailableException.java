@@ -0,0 +1,18 @@
+package com.mycompany.frauddetection.resilience;
+
+/**
+ * A call to a dependency was not made, because its circuit breaker is open or its concurrency limit is reached.
+ */
+public class DependencyUnavailableException extends RuntimeException {
+
+    private final String dependency;
+
+    public DependencyUnavailableException(String dependency, String reason) {
+        super(dependency + " unavailable: " + reason, null, false, false);
+        this.dependency = dependency;
+    }
+
+    public String dependency() {
+        return dependency;
+    }
+}
@@ -0,0 +1,288 @@
+package com.mycompany.frauddetection.risk;
+
+import com.mycompany.frauddetection.record.CheckResult;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Rolling risk state per user, kept in memory so that a user's uploads can be judged before any remote call is
+ * made. Each user has a sliding-window upload counter, made of a ring of per-bucket counts, the peak count seen in
+ * a window, and the flags of the last verdict. Users are spread over shards by their id, each shard a bounded LRU
+ * map under its own lock, so memory stays bounded and uploads of different users rarely contend.
+ * <p>
+ * A user whose legacy system check flagged them within {@code fraud.user-risk.flagged-ttl} is known to be
+ * fraudulent; their uploads take a fast path without remote calls. A user who sent
+ * {@code fraud.user-risk.max-uploads-per-window} uploads within the window is throttled until the oldest of them
+ * leaves it. Throttled uploads are not counted, so a throttled user is evaluated at the configured rate.
+ */
+@Service
+public class UserRiskStore {
+
+    /**
+     * How an admitted upload is evaluated.
+     */
+    public enum Admission {
+        /** Every check runs as usual */
+        EVALUATE,
+        /** The legacy system flagged the user recently; its verdict is reused and SageMaker is not called */
+        KNOWN_FRAUD,
+        /**
+         * The id may stand for many users, e.g. an uploading principal, so it is not throttled and every check runs;
+         * its verdicts are not recorded. Never returned by {@link #admit(String)}
+         */
+        UNTRACKED
+    }
+
+    /**
+     * Risk state of one user as seen at a point in time.
+     * @param uploadsInWindow uploads counted in the current window
+     * @param peakUploadsInWindow most uploads ever counted in one window
+     * @param lastFraud verdict of the last evaluated upload, {@code null} if none was evaluated yet
+     */
+    public record RiskSnapshot(int uploadsInWindow, int peakUploadsInWindow, Boolean lastFraud) {
+    }
+
+    // Buckets per window; the window slides by one bucket at a time
+    private static final int BUCKETS = 12;
+
+    private static final byte VERDICT_KNOWN = 1;
+    private static final byte FRAUD = 1 << 1;
+    private static final byte LEGACY_FRAUD = 1 << 2;
+
+    private final boolean enabled;
+    private final Shard[] shards;
+    private final long bucketMillis;
+    private final long windowMillis;
+    private final int maxUploadsPerWindow;
+    private final long flaggedTtlMillis;
+    private final LongSupplier clock;
+    private final Counter knownFraud;
+    private final Counter throttled;
+
+    @Autowired
+    public UserRiskStore(final MeterRegistry meterRegistry,
+                         @Value("${fraud.user-risk.enabled:true}") boolean enabled,
+                         @Value("${fraud.user-risk.shards:16}") int shards,
+                         @Value("${fraud.user-risk.maximum-size:100000}") int maximumSize,
+                         @Value("${fraud.user-risk.window:60s}") Duration window,
+                         @Value("${fraud.user-risk.max-uploads-per-window:120}") int maxUploadsPerWindow,
+                         @Value("${fraud.user-risk.flagged-ttl:10m}") Duration flaggedTtl) {
+        this(meterRegistry, enabled, shards, maximumSize, window, maxUploadsPerWindow, flaggedTtl,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock source of the current time in milliseconds
+     */
+    public UserRiskStore(MeterRegistry meterRegistry, boolean enabled, int shards, int maximumSize, Duration window,
+                         int maxUploadsPerWindow, Duration flaggedTtl, LongSupplier clock) {
+        this.enabled = enabled;
+        // A power of two, so the shard is picked with a mask
+        int shardCount = shards <= 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+        this.shards = new Shard[shardCount];
+        Counter evictions = meterRegistry.counter("fraud.user-risk.evictions");
+        int maximumPerShard = Math.max(1, maximumSize / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard(maximumPerShard, evictions);
+        }
+        this.bucketMillis = Math.max(1, window.toMillis() / BUCKETS);
+        this.windowMillis = bucketMillis * BUCKETS;
+        this.maxUploadsPerWindow = maxUploadsPerWindow;
+        this.flaggedTtlMillis = flaggedTtl.toMillis();
+        this.clock = clock;
+        this.knownFraud = meterRegistry.counter("fraud.user-risk.admissions", "admission", "known_fraud");
+        this.throttled = meterRegistry.counter("fraud.user-risk.admissions", "admission", "throttled");
+        Gauge.builder("fraud.user-risk.users", this, UserRiskStore::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Count an upload of the user, unless the user is throttled.
+     * @param userId user who uploaded a file
+     * @return how the upload is to be evaluated
+     * @throws UserThrottledException if the user sent too many uploads within the window
+     */
+    public Admission admit(String userId) {
+        if (!enabled) {
+            return Admission.EVALUATE;
+        }
+        long now = clock.getAsLong();
+        long bucket = now / bucketMillis;
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            UserRisk risk = shard.users.computeIfAbsent(userId, id -> new UserRisk(bucket));
+            risk.slideTo(bucket);
+            risk.lastSeenMillis = now;
+            boolean flagged = (risk.verdict & LEGACY_FRAUD) != 0 && now - risk.verdictMillis < flaggedTtlMillis;
+            // Known fraud costs no remote call, so it is never throttled
+            if (!flagged && risk.inWindow >= maxUploadsPerWindow) {
+                throttled.increment();
+                throw new UserThrottledException(userId, Duration.ofMillis(risk.retryAfterMillis(now, bucketMillis)));
+            }
+            risk.count();
+            if (flagged) {
+                knownFraud.increment();
+                return Admission.KNOWN_FRAUD;
+            }
+            return Admission.EVALUATE;
+        }
+    }
+
+    /**
+     * Remember the verdict of an evaluated upload. Only a legacy verdict the legacy system actually gave marks the
+     * user as known fraud; remembered ones, fallbacks and skipped checks do not, so the mark expires.
+     * @param userId user who uploaded the file
+     * @param verdict verdict of the upload
+     */
+    public void recordVerdict(String userId, FraudVerdict verdict) {
+        if (!enabled) {
+            return;
+        }
+        long now = clock.getAsLong();
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            UserRisk risk = shard.users.computeIfAbsent(userId, id -> new UserRisk(now / bucketMillis));
+            byte flags = (byte) (VERDICT_KNOWN | (verdict.fraud() ? FRAUD : 0));
+            if (verdict.legacy().outcome() == CheckResult.Outcome.COMPLETED) {
+                if (verdict.legacy().fraud()) {
+                    flags |= LEGACY_FRAUD;
+                    risk.verdictMillis = now;
+                }
+            } else {
+                flags |= (byte) (risk.verdict & LEGACY_FRAUD);
+            }
+            risk.verdict = flags;
+        }
+    }
+
+    /**
+     * @return the user's risk state, or {@code null} if the user is not known
+     */
+    public RiskSnapshot snapshot(String userId) {
+        long bucket = clock.getAsLong() / bucketMillis;
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            UserRisk risk = shard.users.get(userId);
+            if (risk == null) {
+                return null;
+            }
+            risk.slideTo(bucket);
+            Boolean lastFraud = (risk.verdict & VERDICT_KNOWN) != 0 ? (risk.verdict & FRAUD) != 0 : null;
+            return new RiskSnapshot(risk.inWindow, risk.peakInWindow, lastFraud);
+        }
+    }
+
+    /**
+     * Drop users with no upload in the window and no live known-fraud mark; they would start from scratch anyway.
+     */
+    @Scheduled(fixedDelayString = "${fraud.user-risk.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.users.values().removeIf(risk -> now - risk.lastSeenMillis >= windowMillis
+                        && ((risk.verdict & LEGACY_FRAUD) == 0 || now - risk.verdictMillis >= flaggedTtlMillis));
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.users.size();
+            }
+        }
+        return size;
+    }
+
+    private Shard shardFor(String userId) {
+        int hash = userId.hashCode();
+        return shards[(hash ^ hash >>> 16) & shards.length - 1];
+    }
+
+    private static final class Shard {
+
+        final LinkedHashMap<String, UserRisk> users;
+
+        Shard(int maximumSize, Counter evictions) {
+            // Access order, so the least recently active user is evicted first
+            this.users = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, UserRisk> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    /**
+     * Mutable state of one user, guarded by the lock of its shard.
+     */
+    private static final class UserRisk {
+
+        final int[] buckets = new int[BUCKETS];
+        long headBucket;
+        int inWindow;
+        int peakInWindow;
+        long lastSeenMillis;
+        byte verdict;
+        long verdictMillis;
+
+        UserRisk(long bucket) {
+            this.headBucket = bucket;
+        }
+
+        void slideTo(long bucket) {
+            if (bucket <= headBucket) {
+                return;
+            }
+            if (bucket - headBucket >= BUCKETS) {
+                Arrays.fill(buckets, 0);
+                inWindow = 0;
+            } else {
+                for (long b = headBucket + 1; b <= bucket; b++) {
+                    int index = Math.floorMod(b, BUCKETS);
+                    inWindow -= buckets[index];
+                    buckets[index] = 0;
+                }
+            }
+            headBucket = bucket;
+        }
+
+        void count() {
+            buckets[Math.floorMod(headBucket, BUCKETS)]++;
+            inWindow++;
+            peakInWindow = Math.max(peakInWindow, inWindow);
+        }
+
+        long retryAfterMillis(long now, long bucketMillis) {
+            // The oldest bucket holding uploads leaves the window first
+            for (long b = headBucket - BUCKETS + 1; b <= headBucket; b++) {
+                if (buckets[Math.floorMod(b, BUCKETS)] != 0) {
+                    return Math.max(bucketMillis, (b + BUCKETS) * bucketMillis - now);
+                }
+            }
+            return bucketMillis;
+        }
+    }
+}
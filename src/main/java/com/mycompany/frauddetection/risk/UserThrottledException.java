@@ -0,0 +1,29 @@
+package com.mycompany.frauddetection.risk;
+
+import java.time.Duration;
+
+/**
+ * A user sent more uploads within the sliding window than are evaluated; the upload is to be retried later.
+ */
+public class UserThrottledException extends RuntimeException {
+
+    private final String userId;
+    private final Duration retryAfter;
+
+    public UserThrottledException(String userId, Duration retryAfter) {
+        super("User " + userId + " is throttled for " + retryAfter, null, false, false);
+        this.userId = userId;
+        this.retryAfter = retryAfter;
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    /**
+     * @return how long until the user's oldest counted upload leaves the window
+     */
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
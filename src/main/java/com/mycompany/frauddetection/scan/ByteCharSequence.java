@@ -0,0 +1,55 @@
+package com.mycompany.frauddetection.scan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link CharSequence} view of a byte buffer that maps every byte to the char of the same value (ISO-8859-1),
+ * so regular expressions can run over raw content without decoding it into a string first. Multi-byte UTF-8
+ * characters show up as one char per byte, which is fine for ASCII patterns.
+ */
+final class ByteCharSequence implements CharSequence {
+
+    private final ByteBuffer content;
+    private final int offset;
+    private final int length;
+
+    ByteCharSequence(ByteBuffer content) {
+        this(content, content.position(), content.remaining());
+    }
+
+    private ByteCharSequence(ByteBuffer content, int offset, int length) {
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (char) (content.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new ByteCharSequence(content, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+}
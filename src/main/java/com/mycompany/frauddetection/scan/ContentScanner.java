@@ -0,0 +1,145 @@
+package com.mycompany.frauddetection.scan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Content rule engine behind the content-specific fraud check. Keyword rules are compiled into a single
+ * {@link KeywordAutomaton}, so the content is scanned once no matter how many keywords there are; regular
+ * expression rules, if any, each run over a byte-backed view of the content.
+ * <p>
+ * Rules come from {@code fraud.content.keywords} and, optionally, a rules file with one rule per line: a keyword,
+ * or a regular expression prefixed with {@code regex:}. Lines starting with {@code #} are comments. The rules file
+ * is re-read whenever it changes, without a restart.
+ */
+@Component
+public class ContentScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentScanner.class);
+
+    private static final String REGEX_PREFIX = "regex:";
+    private static final String COMMENT_PREFIX = "#";
+
+    private final List<String> keywords;
+    private final Path rulesFile;
+    private final boolean caseInsensitive;
+
+    private volatile Rules rules;
+    private volatile long rulesFileModified = -1;
+
+    public ContentScanner(@Value("${fraud.content.keywords:fraud,illegal}") List<String> keywords,
+                          @Value("${fraud.content.rules-file:}") String rulesFile,
+                          @Value("${fraud.content.case-insensitive:false}") boolean caseInsensitive) throws IOException {
+        this.keywords = List.copyOf(keywords);
+        this.rulesFile = rulesFile.isBlank() ? null : Path.of(rulesFile);
+        this.caseInsensitive = caseInsensitive;
+        this.rules = compile(readRules());
+    }
+
+    /**
+     * @param content content to scan; its position is left unchanged
+     * @return whether any rule matches the content
+     */
+    public boolean matches(ByteBuffer content) {
+        return firstMatch(content) != null;
+    }
+
+    /**
+     * @param content content to scan; its position is left unchanged
+     * @return the first rule found to match the content, or {@code null} if none does
+     */
+    public String firstMatch(ByteBuffer content) {
+        Rules current = rules;
+        String keyword = current.keywords().firstMatch(content);
+        if (keyword != null) {
+            return keyword;
+        }
+        if (!current.patterns().isEmpty()) {
+            CharSequence text = new ByteCharSequence(content);
+            for (Pattern pattern : current.patterns()) {
+                if (pattern.matcher(text).find()) {
+                    return REGEX_PREFIX + pattern.pattern();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a fingerprint of the loaded rules, which changes whenever different rules are loaded, also across
+     * restarts; verdicts remembered for content are only valid for the rules they were found with
+     */
+    public int rulesFingerprint() {
+        return rules.fingerprint();
+    }
+
+    /**
+     * Re-read the rules file if it changed since it was last loaded. A file that cannot be read or holds an
+     * invalid expression leaves the current rules in place.
+     */
+    @Scheduled(fixedDelayString = "${fraud.content.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        if (rulesFile == null) {
+            return;
+        }
+        try {
+            long modified = Files.getLastModifiedTime(rulesFile).toMillis();
+            if (modified == rulesFileModified) {
+                return;
+            }
+            Rules reloaded = compile(readRules());
+            rules = reloaded;
+            log.info("Loaded {} keyword and {} regex content rules from {}",
+                    reloaded.keywords().keywordCount(), reloaded.patterns().size(), rulesFile);
+        } catch (IOException | PatternSyntaxException e) {
+            log.error("Could not reload content rules from {}, keeping the current rules", rulesFile, e);
+        }
+    }
+
+    private List<String> readRules() throws IOException {
+        List<String> lines = new ArrayList<>(keywords);
+        if (rulesFile != null) {
+            rulesFileModified = Files.getLastModifiedTime(rulesFile).toMillis();
+            lines.addAll(Files.readAllLines(rulesFile, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private Rules compile(List<String> lines) {
+        List<String> keywordRules = new ArrayList<>();
+        List<String> regexRules = new ArrayList<>();
+        List<Pattern> patterns = new ArrayList<>();
+        for (String line : lines) {
+            String rule = line.strip();
+            if (rule.isEmpty() || rule.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+            if (rule.startsWith(REGEX_PREFIX)) {
+                int flags = caseInsensitive ? Pattern.CASE_INSENSITIVE : 0;
+                patterns.add(Pattern.compile(rule.substring(REGEX_PREFIX.length()), flags));
+                regexRules.add(rule);
+            } else {
+                keywordRules.add(rule);
+            }
+        }
+        return new Rules(KeywordAutomaton.compile(keywordRules, caseInsensitive), List.copyOf(patterns),
+                Objects.hash(keywordRules, regexRules, caseInsensitive));
+    }
+
+    private record Rules(KeywordAutomaton keywords, List<Pattern> patterns, int fingerprint) {
+    }
+}
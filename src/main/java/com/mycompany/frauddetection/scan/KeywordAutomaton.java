@@ -0,0 +1,167 @@
+package com.mycompany.frauddetection.scan;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton over the UTF-8 bytes of a set of keywords, compiled into a dense DFA so that scanning
+ * costs one table lookup per input byte regardless of how many keywords there are, and allocates nothing.
+ * <p>
+ * Bytes are first mapped to equivalence classes (every byte that occurs in no keyword shares one class), which
+ * keeps the transition table small even for thousands of keywords. Case-insensitive automatons fold ASCII letters
+ * into the same class and additionally match the lower and upper case forms of non-ASCII keywords.
+ */
+public final class KeywordAutomaton {
+
+    private static final int NO_MATCH = -1;
+
+    private final List<String> keywords;
+    private final int[] byteClasses;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] matches;
+
+    private KeywordAutomaton(List<String> keywords, int[] byteClasses, int classCount, int[] transitions, int[] matches) {
+        this.keywords = keywords;
+        this.byteClasses = byteClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.matches = matches;
+    }
+
+    /**
+     * @param keywords keywords to match; empty keywords are ignored
+     * @param caseInsensitive whether keywords match regardless of case
+     * @return the compiled automaton
+     */
+    public static KeywordAutomaton compile(List<String> keywords, boolean caseInsensitive) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(keywords));
+        distinct.removeIf(String::isEmpty);
+
+        // Encode every keyword, plus its case variants when matching case-insensitively
+        List<byte[]> patterns = new ArrayList<>();
+        List<Integer> patternKeywords = new ArrayList<>();
+        for (int k = 0; k < distinct.size(); k++) {
+            String keyword = distinct.get(k);
+            Set<String> forms = new LinkedHashSet<>();
+            forms.add(keyword);
+            if (caseInsensitive) {
+                forms.add(keyword.toLowerCase(Locale.ROOT));
+                forms.add(keyword.toUpperCase(Locale.ROOT));
+            }
+            for (String form : forms) {
+                patterns.add(form.getBytes(StandardCharsets.UTF_8));
+                patternKeywords.add(k);
+            }
+        }
+
+        // Map bytes to equivalence classes; class 0 stands for every byte that occurs in no keyword
+        int[] byteClasses = new int[256];
+        int classCount = 1;
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                int folded = fold(b & 0xFF, caseInsensitive);
+                if (byteClasses[folded] == 0) {
+                    byteClasses[folded] = classCount++;
+                }
+            }
+        }
+        if (caseInsensitive) {
+            for (int c = 'A'; c <= 'Z'; c++) {
+                byteClasses[c] = byteClasses[c + ('a' - 'A')];
+            }
+        }
+
+        // Build the trie; -1 marks a missing edge until the failure links fill it in
+        int stateCapacity = 1;
+        for (byte[] pattern : patterns) {
+            stateCapacity += pattern.length;
+        }
+        int[] transitions = new int[stateCapacity * classCount];
+        Arrays.fill(transitions, -1);
+        int[] matches = new int[stateCapacity];
+        Arrays.fill(matches, NO_MATCH);
+        int stateCount = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p)) {
+                int edge = state * classCount + byteClasses[b & 0xFF];
+                if (transitions[edge] == -1) {
+                    transitions[edge] = stateCount++;
+                }
+                state = transitions[edge];
+            }
+            if (matches[state] == NO_MATCH) {
+                matches[state] = patternKeywords.get(p);
+            }
+        }
+
+        // Breadth-first over the trie: complete every state's transitions from its failure state
+        int[] failure = new int[stateCount];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            int child = transitions[c];
+            if (child == -1) {
+                transitions[c] = 0;
+            } else {
+                failure[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            if (matches[state] == NO_MATCH) {
+                matches[state] = matches[failure[state]];
+            }
+            for (int c = 0; c < classCount; c++) {
+                int edge = state * classCount + c;
+                int child = transitions[edge];
+                int fallback = transitions[failure[state] * classCount + c];
+                if (child == -1) {
+                    transitions[edge] = fallback;
+                } else {
+                    failure[child] = fallback;
+                    queue.add(child);
+                }
+            }
+        }
+
+        return new KeywordAutomaton(List.copyOf(distinct), byteClasses, classCount,
+                Arrays.copyOf(transitions, stateCount * classCount), Arrays.copyOf(matches, stateCount));
+    }
+
+    /**
+     * Scan the remaining bytes of the buffer in a single pass, without changing its position.
+     * @param content bytes to scan
+     * @return the first keyword found, or {@code null} if none occurs
+     */
+    public String firstMatch(ByteBuffer content) {
+        int state = 0;
+        for (int i = content.position(), limit = content.limit(); i < limit; i++) {
+            state = transitions[state * classCount + byteClasses[content.get(i) & 0xFF]];
+            if (matches[state] != NO_MATCH) {
+                return keywords.get(matches[state]);
+            }
+        }
+        return null;
+    }
+
+    public int keywordCount() {
+        return keywords.size();
+    }
+
+    public int stateCount() {
+        return matches.length;
+    }
+
+    private static int fold(int b, boolean caseInsensitive) {
+        return caseInsensitive && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
@@ -0,0 +1,201 @@
+package com.mycompany.frauddetection.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * Remembers the AI and content verdicts of file content by the SHA-256 of its bytes, so a file uploaded again,
+ * by any user, is neither sent to SageMaker nor scanned a second time. Entries live in a bounded in-memory LRU
+ * cache with a TTL; with {@code fraud.verdict-cache.disk-directory} set, they are also written to an on-disk tier
+ * that answers for entries evicted from memory and survives restarts.
+ * <p>
+ * Content verdicts are stored with the fingerprint of the content rules they were found with and are ignored once
+ * other rules are loaded. Only verdicts a check actually produced are recorded, never timeout fallbacks.
+ */
+@Service
+public class ContentVerdictCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentVerdictCache.class);
+
+    private static final HexFormat HEX = HexFormat.of();
+    private static final String UNKNOWN = "-";
+
+    /**
+     * Verdicts remembered for one content hash; a verdict is {@code null} while it is not known.
+     */
+    public record ContentVerdicts(Boolean aiFraud, Boolean contentFraud, int rulesFingerprint) {
+
+        /**
+         * @return the content verdict if it was found with the given rules, {@code null} otherwise
+         */
+        public Boolean contentFraud(int currentRulesFingerprint) {
+            return rulesFingerprint == currentRulesFingerprint ? contentFraud : null;
+        }
+    }
+
+    private final boolean enabled;
+    private final Duration ttl;
+    private final Path diskDirectory;
+    private final Cache<String, ContentVerdicts> verdicts;
+
+    public ContentVerdictCache(final MeterRegistry meterRegistry,
+                               @Value("${fraud.verdict-cache.enabled:true}") boolean enabled,
+                               @Value("${fraud.verdict-cache.maximum-size:100000}") long maximumSize,
+                               @Value("${fraud.verdict-cache.ttl:24h}") Duration ttl,
+                               @Value("${fraud.verdict-cache.disk-directory:}") String diskDirectory) throws IOException {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.diskDirectory = diskDirectory.isBlank() ? null : Files.createDirectories(Path.of(diskDirectory));
+        this.verdicts = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verdicts, "content.verdicts");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param content content to hash; its position is left unchanged
+     * @return the hex-encoded SHA-256 of the remaining bytes of the content
+     */
+    public static String hash(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            return HEX.formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @param contentHash hash of the content
+     * @return the verdicts remembered for the content, or {@code null} if there are none
+     */
+    public ContentVerdicts get(String contentHash) {
+        if (!enabled) {
+            return null;
+        }
+        ContentVerdicts cached = verdicts.getIfPresent(contentHash);
+        if (cached == null && diskDirectory != null) {
+            cached = readFromDisk(contentHash);
+            if (cached != null) {
+                verdicts.put(contentHash, cached);
+            }
+        }
+        return cached;
+    }
+
+    public void recordAIVerdict(String contentHash, boolean aiFraud) {
+        if (enabled) {
+            store(contentHash, verdicts.asMap().merge(contentHash, new ContentVerdicts(aiFraud, null, 0),
+                    (previous, update) -> new ContentVerdicts(aiFraud, previous.contentFraud(), previous.rulesFingerprint())));
+        }
+    }
+
+    public void recordContentVerdict(String contentHash, boolean contentFraud, int rulesFingerprint) {
+        if (enabled) {
+            store(contentHash, verdicts.asMap().merge(contentHash, new ContentVerdicts(null, contentFraud, rulesFingerprint),
+                    (previous, update) -> new ContentVerdicts(previous.aiFraud(), contentFraud, rulesFingerprint)));
+        }
+    }
+
+    public CacheStats getCacheStats() {
+        return verdicts.stats();
+    }
+
+    /**
+     * Delete on-disk entries older than the TTL.
+     */
+    @Scheduled(fixedDelayString = "${fraud.verdict-cache.disk-sweep-interval-ms:600000}")
+    public void sweepDisk() {
+        if (diskDirectory == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - ttl.toMillis();
+        try (Stream<Path> files = Files.walk(diskDirectory)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    log.debug("Could not sweep verdict file {}", file, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Could not sweep the verdict cache directory {}", diskDirectory, e);
+        }
+    }
+
+    private void store(String contentHash, ContentVerdicts entry) {
+        if (diskDirectory == null) {
+            return;
+        }
+        String line = format(entry.aiFraud()) + "," + format(entry.contentFraud()) + "," + entry.rulesFingerprint();
+        Path file = diskPath(contentHash);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), contentHash, ".tmp");
+            Files.writeString(temp, line, StandardCharsets.US_ASCII);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The in-memory tier still has the entry
+            log.warn("Could not write verdicts for content {} to disk", contentHash, e);
+        }
+    }
+
+    private ContentVerdicts readFromDisk(String contentHash) {
+        Path file = diskPath(contentHash);
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() < System.currentTimeMillis() - ttl.toMillis()) {
+                return null;
+            }
+            String[] fields = Files.readString(file, StandardCharsets.US_ASCII).strip().split(",");
+            return new ContentVerdicts(parse(fields[0]), parse(fields[1]), Integer.parseInt(fields[2]));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable verdict file {}", file, e);
+            return null;
+        }
+    }
+
+    // Two levels of directories keep the number of files per directory small
+    private Path diskPath(String contentHash) {
+        return diskDirectory.resolve(contentHash.substring(0, 2)).resolve(contentHash);
+    }
+
+    private static String format(Boolean verdict) {
+        return verdict == null ? UNKNOWN : verdict.toString();
+    }
+
+    private static Boolean parse(String field) {
+        return UNKNOWN.equals(field) ? null : Boolean.valueOf(field);
+    }
+}
@@ -1,33 +1,83 @@
 package com.mycompany.frauddetection.service;
 
+import com.mycompany.frauddetection.io.ByteBufferPool;
+import com.mycompany.frauddetection.io.FileEventParser;
+import com.mycompany.frauddetection.io.InferencePayloads;
+import com.mycompany.frauddetection.io.SpillFileStore;
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import com.mycompany.frauddetection.record.CheckResult;
 import com.mycompany.frauddetection.record.FileContent;
+import com.mycompany.frauddetection.record.FileReference;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import com.mycompany.frauddetection.resilience.DependencyUnavailableException;
+import com.mycompany.frauddetection.risk.UserRiskStore;
+import com.mycompany.frauddetection.risk.UserThrottledException;
+import com.mycompany.frauddetection.scan.ContentScanner;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jms.annotation.JmsListener;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeAsyncClient;
 import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeClient;
 import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointRequest;
 import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointResponse;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 @Service
 public class FraudDetectionService {
 
+    /**
+     * Body sent to the SageMaker endpoint: the Base64-encoded file in a JSON document, or the raw file bytes
+     * with the file's content type.
+     */
+    public enum PayloadFormat {
+        JSON,
+        RAW
+    }
+
+    /**
+     * How the checks of a file are evaluated. {@code AUDIT} runs every check concurrently and records every
+     * result. {@code TIERED} runs them cheapest first, the content scan, then the legacy lookup, then SageMaker, and
+     * skips the remaining ones as soon as one flags the file, since a single flag already decides the verdict.
+     */
+    public enum EvaluationMode {
+        AUDIT,
+        TIERED
+    }
+
     @Autowired
     private SageMakerRuntimeClient sageMakerRuntimeClient;
 
+    @Autowired
+    private SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient;
+
+    @Autowired
+    private SageMakerInferenceBatcher sageMakerInferenceBatcher;
+
     @Autowired
     private LegacySystemService legacySystemService;
 
@@ -38,29 +88,214 @@ public class FraudDetectionService {
     private SQLDatabaseService sqlDatabaseService;
 
     @Autowired
-    private SqsClient sqsClient;
+    private SqsResultPublisher sqsResultPublisher;
+
+    @Autowired
+    private FraudVerdictEncoder fraudVerdictEncoder;
 
     @Autowired
     private S3Client s3Client;
 
-    private final String fraudDetectionEndpoint = "<my-sagemaker-endpoint>";
-    private final String sqsQueueUrl = "<my-sqs-queue-url>";
+    @Autowired
+    private ByteBufferPool byteBufferPool;
+
+    @Autowired
+    private SpillFileStore spillFileStore;
 
-    @JmsListener(destination = "my-sqs-queue-name")
-    public void receiveMessage(String message) {
-        try {
-            // Parse SQS message to extract file details (bucket, key, userId)
-            String bucketName = extractBucketName(message);
-            String fileKey = extractFileKey(message);
-            String userId = extractUserId(message);
+    @Autowired
+    private ContentScanner contentScanner;
+
+    @Autowired
+    private ContentVerdictCache contentVerdictCache;
+
+    @Autowired
+    private ExecutorService fraudCheckExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private UserRiskStore userRiskStore;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    @Qualifier("sageMakerGuard")
+    private DependencyGuard sageMakerGuard;
+
+    // Real-time endpoints accept at most 6 MB per request; the default is the most input whose Base64 JSON document
+    // still fits, even as the only instance of a batch
+    @Value("${fraud.sagemaker.max-input-bytes:" + InferencePayloads.MAX_INPUT_BYTES + "}")
+    private int maxAIInputBytes = InferencePayloads.MAX_INPUT_BYTES;
+
+    @Value("${fraud.sagemaker.async:true}")
+    private boolean asyncInference;
+
+    @Value("${fraud.sagemaker.payload-format:json}")
+    private PayloadFormat payloadFormat = PayloadFormat.JSON;
+
+    @Value("${fraud.checks.evaluation-mode:audit}")
+    private EvaluationMode evaluationMode = EvaluationMode.AUDIT;
+
+    @Value("${fraud.checks.timeout-ms:2000}")
+    private long checkTimeoutMs;
+
+    @Value("${fraud.checks.fallback.ai:false}")
+    private boolean aiFallbackVerdict;
 
-            FileContent fileContent = getFileFromS3WithContentType(bucketName, fileKey);
-            detectFraud(fileContent.fileContent(), fileContent.contentType(), userId);
-        } catch (Exception e) {
-            System.out.println("Error processing message: " + e.getMessage());
+    @Value("${fraud.checks.fallback.legacy:false}")
+    private boolean legacyFallbackVerdict;
+
+    @Value("${fraud.checks.fallback.content:false}")
+    private boolean contentFallbackVerdict;
+
+    @Value("${fraud.sagemaker.endpoint-name:<my-sagemaker-endpoint>}")
+    private String fraudDetectionEndpoint;
+
+    @Value("${fraud.s3-events.user-key-segment:-1}")
+    private int userKeySegment = -1;
+
+    /**
+     * A larger input would be rejected by the endpoint on every call, so such a setting fails the startup instead.
+     */
+    @PostConstruct
+    public void validateAIInputLimit() {
+        if (maxAIInputBytes > InferencePayloads.MAX_INPUT_BYTES) {
+            throw new IllegalStateException("fraud.sagemaker.max-input-bytes=" + maxAIInputBytes
+                    + " exceeds the SageMaker request limit; at most " + InferencePayloads.MAX_INPUT_BYTES + " bytes fit");
+        }
+    }
+
+    /**
+     * Process a single message from the input queue: our envelope or an S3 event notification, which may announce
+     * several files. Failures are propagated so that the consumer ({@link SqsMessageConsumer}) leaves the message
+     * on the queue for redelivery.
+     * @param message body of the SQS message
+     * @throws Exception if the message could not be processed
+     */
+    public void receiveMessage(String message) throws Exception {
+        receiveMessage(null, message);
+    }
+
+    /**
+     * Process a single message from the input queue, unless it was processed before. A message delivered again is
+     * recognized by its id, a file announced again, e.g. by a duplicate S3 event, by its bucket, key and version;
+     * either returns without running the pipeline, so the consumer simply deletes the message.
+     * @param messageId id of the SQS message, or {@code null} if not known
+     * @param message body of the SQS message
+     * @throws WorkInProgressException if another consumer is processing the message or one of its files right now
+     * @throws UserThrottledException if the user of one of its files sent too many uploads recently; no file of the
+     * message was fetched or checked
+     * @throws Exception if the message could not be processed
+     */
+    public void receiveMessage(String messageId, String message) throws Exception {
+        pipelineMetrics.time(PipelineMetrics.MESSAGE, () -> {
+            String messageKey = messageId != null ? "message:" + messageId : null;
+            // Claims of this delivery are released only by it, never once someone else took them over
+            String owner = UUID.randomUUID().toString();
+            if (messageKey != null && !claim(messageKey, owner)) {
+                return null;
+            }
+            try {
+                // Parse SQS message to extract file details (bucket, key, userId) in a single pass
+                List<FileReference> files = pipelineMetrics.time(PipelineMetrics.PARSE, () -> parseMessage(message));
+                // Every file is claimed and admitted before any is fetched, so a throttled user defers the message
+                // before work is done that its redelivery would repeat
+                List<AdmittedFile> admitted = new ArrayList<>(files.size());
+                int processed = 0;
+                try {
+                    for (FileReference file : files) {
+                        String fileKey = file.version() != null
+                                ? "file:" + file.bucket() + '/' + file.key() + '@' + file.version() : null;
+                        if (fileKey != null && !claim(fileKey, owner)) {
+                            continue;
+                        }
+                        UserRiskStore.Admission admission;
+                        try {
+                            admission = file.userTracked()
+                                    ? userRiskStore.admit(file.userId()) : UserRiskStore.Admission.UNTRACKED;
+                        } catch (RuntimeException e) {
+                            if (fileKey != null) {
+                                idempotencyStore.release(fileKey, owner);
+                            }
+                            throw e;
+                        }
+                        admitted.add(new AdmittedFile(file, fileKey, admission));
+                    }
+                    for (AdmittedFile file : admitted) {
+                        try (FileContent fileContent = pipelineMetrics.time(PipelineMetrics.S3_FETCH,
+                                () -> getFileFromS3WithContentType(file.reference().bucket(), file.reference().key()))) {
+                            pipelineMetrics.recordPayloadSize(PipelineMetrics.S3_FETCH, fileContent.size());
+                            detectFraud(fileContent, file.reference().userId(), file.admission());
+                        }
+                        if (file.key() != null) {
+                            idempotencyStore.complete(file.key());
+                        }
+                        processed++;
+                    }
+                } catch (Exception e) {
+                    for (AdmittedFile file : admitted.subList(processed, admitted.size())) {
+                        if (file.key() != null) {
+                            idempotencyStore.release(file.key(), owner);
+                        }
+                    }
+                    throw e;
+                }
+            } catch (Exception e) {
+                if (messageKey != null) {
+                    idempotencyStore.release(messageKey, owner);
+                }
+                throw e;
+            }
+            if (messageKey != null) {
+                idempotencyStore.complete(messageKey);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * A file of a message, claimed if it has a version, and let through by the user's risk state.
+     * @param key idempotency key of the file, {@code null} if it has no version
+     */
+    private record AdmittedFile(FileReference reference, String key, UserRiskStore.Admission admission) {
+    }
+
+    /**
+     * @return whether the work is to be done now; {@code false} if it was done before
+     * @throws WorkInProgressException if someone else is doing the work right now
+     */
+    private boolean claim(String key, String owner) {
+        IdempotencyStore.Claim claim = idempotencyStore.claim(key, owner);
+        if (claim == IdempotencyStore.Claim.IN_PROGRESS) {
+            // Not done yet, so the message must come back
+            throw new WorkInProgressException(key);
         }
+        return claim == IdempotencyStore.Claim.CLAIMED;
+    }
+
+    /**
+     * @param message body of the SQS message
+     * @return the files the message announces
+     * @throws IllegalArgumentException if the message cannot be understood
+     */
+    public List<FileReference> parseMessage(String message) {
+        return FileEventParser.parse(message, userKeySegment);
     }
 
+    /**
+     * Fetch a file from S3. The content is read straight into a pooled buffer sized from the object's content
+     * length, so it is copied exactly once; objects above the spill threshold are streamed to a memory-mapped
+     * temp file instead. Close the returned content to release its buffer or temp file.
+     * @param bucketName bucket of the file
+     * @param fileKey key of the file
+     * @return the file content and its content type
+     * @throws IOException if reading the object fails
+     */
     public FileContent getFileFromS3WithContentType(String bucketName, String fileKey) throws IOException {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
@@ -72,11 +307,17 @@ public class FraudDetectionService {
             // Extract the content type from the response metadata
             String contentType = s3ObjectResponse.response().contentType();
 
-            // Convert the file content to a byte array
-            byte[] fileContent = convertInputStreamToByteArray(s3ObjectResponse);
+            // Keep large files off the heap
+            Long contentLength = s3ObjectResponse.response().contentLength();
+            if (spillFileStore.shouldSpill(contentLength)) {
+                return spillFileStore.spill(s3ObjectResponse, contentType);
+            }
+
+            // Read the file content into a buffer sized from the content length
+            ByteBuffer buffer = byteBufferPool.readFully(s3ObjectResponse, contentLength);
 
             // Return the file content and its content type
-            return new FileContent(fileContent, contentType);
+            return new FileContent(buffer, contentType, () -> byteBufferPool.release(buffer));
         }
     }
 
@@ -99,73 +340,363 @@ public class FraudDetectionService {
      * @throws Exception
      */
     public void detectFraud(byte[] contentBytes, String contentType, String userId) throws Exception {
-        // 1. Perform AI/ML fraud detection using SageMaker
-        boolean aiFraudCheck = performAIFraudCheck(contentBytes, contentType);
+        try (FileContent fileContent = new FileContent(contentBytes, contentType)) {
+            detectFraud(fileContent, userId);
+        }
+    }
 
-        // 2. Perform fraud check in legacy system (via REST API)
-        boolean legacyFraudCheck = legacySystemService.checkUserFraud(userId);
+    /**
+     * Perform fraud detection on content using AI/ML models, legacy systems, and update databases.
+     * @param fileContent content of the file, read through views only
+     * @param userId
+     * @throws UserThrottledException if the user sent too many uploads recently; nothing was checked
+     * @throws Exception
+     */
+    public void detectFraud(FileContent fileContent, String userId) throws Exception {
+        // Known-bad and high-velocity users are told apart before any remote call
+        detectFraud(fileContent, userId, userRiskStore.admit(userId));
+    }
+
+    /**
+     * Perform fraud detection on content of a user whose upload was admitted already.
+     * @param fileContent content of the file, read through views only
+     * @param userId
+     * @param admission how {@link UserRiskStore#admit(String)} let the upload through
+     * @throws Exception
+     */
+    public void detectFraud(FileContent fileContent, String userId, UserRiskStore.Admission admission)
+            throws Exception {
+        String contentType = fileContent.contentType();
+        // One deadline for the whole verdict: a tier started late gets only what is left of it
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkTimeoutMs);
+
+        // Content seen before, from any user, keeps the AI and content verdicts it got then
+        String contentHash = ContentVerdictCache.hash(fileContent.asByteBuffer());
+        ContentVerdictCache.ContentVerdicts knownVerdicts = contentVerdictCache.get(contentHash);
+        int rulesFingerprint = contentScanner.rulesFingerprint();
+        Boolean knownAIVerdict = knownVerdicts != null ? knownVerdicts.aiFraud() : null;
+        Boolean knownContentVerdict = knownVerdicts != null ? knownVerdicts.contentFraud(rulesFingerprint) : null;
+
+        // 1. Perform AI/ML fraud detection using SageMaker, on the non-blocking client unless disabled
+        Supplier<CompletableFuture<CheckResult>> startAICheck;
+        if (knownAIVerdict != null) {
+            startAICheck = () -> cachedCheck("ai", knownAIVerdict);
+        } else if (asyncInference) {
+            startAICheck = () -> runAsyncCheck("ai", () -> {
+                CompletableFuture<Boolean> verdict = performAIFraudCheckAsync(fileContent);
+                verdict.thenAccept(aiFraud -> rememberAIVerdict(contentHash, aiFraud));
+                return verdict;
+            }, aiFallbackVerdict, deadlineNanos);
+        } else {
+            startAICheck = () -> runCheck("ai", fileContent, () -> rememberAIVerdict(contentHash,
+                    performAIFraudCheck(fileContent.asByteBuffer(), contentType)), aiFallbackVerdict, deadlineNanos);
+        }
+
+        // 2. Perform fraud check in legacy system (via REST API), without holding a thread when the client allows it
+        Supplier<CompletableFuture<CheckResult>> startLegacyCheck = () -> legacySystemService.isNonBlocking()
+                ? runAsyncCheck("legacy", () -> pipelineMetrics.timeAsync(PipelineMetrics.LEGACY,
+                        () -> legacySystemService.checkUserFraudAsync(userId).toFuture()), legacyFallbackVerdict, deadlineNanos)
+                : runCheck("legacy", null, () -> pipelineMetrics.time(PipelineMetrics.LEGACY,
+                        () -> legacySystemService.checkUserFraud(userId)), legacyFallbackVerdict, deadlineNanos);
 
         // 3. Perform content-specific fraud check (simple example)
-        boolean contentFraudCheck = checkContentFraud(contentBytes, contentType);
+        Supplier<CompletableFuture<CheckResult>> startContentCheck = () -> knownContentVerdict != null
+                ? cachedCheck("content", knownContentVerdict)
+                : runCheck("content", fileContent, () -> rememberContentVerdict(contentHash, rulesFingerprint,
+                        pipelineMetrics.time(PipelineMetrics.CONTENT_SCAN,
+                                () -> checkContentFraud(fileContent.asByteBuffer(), contentType))),
+                        contentFallbackVerdict, deadlineNanos);
+
+        CompletableFuture<CheckResult> aiCheck;
+        CompletableFuture<CheckResult> legacyCheck;
+        CompletableFuture<CheckResult> contentCheck = startContentCheck.get();
+        if (admission == UserRiskStore.Admission.KNOWN_FRAUD) {
+            // The legacy system flagged the user moments ago, which decides the verdict; the content is still scanned
+            legacyCheck = cachedCheck("legacy", true);
+            aiCheck = knownAIVerdict != null ? startAICheck.get() : skippedCheck("ai");
+        } else if (evaluationMode == EvaluationMode.TIERED) {
+            // Each tier starts on the check executor, not on whichever thread completed the one before, which
+            // may be an I/O thread
+            legacyCheck = contentCheck.thenComposeAsync(content -> content.fraud()
+                    ? skippedCheck("legacy") : startLegacyCheck.get(), fraudCheckExecutor);
+            // A remembered AI verdict costs nothing, so it is used whatever the other checks found
+            aiCheck = knownAIVerdict != null ? startAICheck.get() : legacyCheck.thenComposeAsync(legacy ->
+                    legacy.fraud() || contentCheck.join().fraud()
+                            ? skippedCheck("ai") : startAICheck.get(), fraudCheckExecutor);
+        } else {
+            legacyCheck = startLegacyCheck.get();
+            aiCheck = startAICheck.get();
+        }
+
+        // In audit mode the checks run concurrently, so the slowest one (bounded by the deadline) sets the latency
+        FraudVerdict verdict = new FraudVerdict(userId, await(aiCheck), await(legacyCheck), await(contentCheck));
+        if (evaluationMode == EvaluationMode.AUDIT && admission != UserRiskStore.Admission.KNOWN_FRAUD) {
+            countSkippableChecks(verdict);
+        }
+        if (admission != UserRiskStore.Admission.UNTRACKED) {
+            userRiskStore.recordVerdict(userId, verdict);
+        }
 
         // 4. Update NoSQL with metadata and fraud detection results
-        noSQLDatabaseService.updateContentMetadata(userId, contentBytes, contentType, aiFraudCheck, legacyFraudCheck, contentFraudCheck);
+        noSQLDatabaseService.updateContentMetadata(userId, contentHash, fileContent.size(), contentType,
+                verdict.ai().verdict(), verdict.legacy().verdict(), verdict.content().verdict());
 
         // 5. If fraud detected, update SQL database with user fraud status
-        if (aiFraudCheck || legacyFraudCheck || contentFraudCheck) {
+        if (verdict.fraud()) {
             sqlDatabaseService.updateUserFraudStatus(userId, true);
         }
 
         // 6. Send an update to the SQS queue with the result of the fraud check
-        sendFraudDetectionResultToSQS(userId, aiFraudCheck, legacyFraudCheck, contentFraudCheck);
+        sendFraudDetectionResultToSQS(verdict);
+    }
+
+    /**
+     * Runs a single fraud check on the check executor. If it does not answer by the verdict's deadline it is
+     * cancelled and the fallback verdict is used instead; any other failure is propagated to the caller.
+     * A check whose deadline has passed before it starts is not run at all.
+     * A check reading the file content holds its own reference to it, so a timed-out check that is still
+     * running never sees the buffer recycled underneath it.
+     * @param check name of the check, used as metric tag
+     * @param content file content the check reads, or {@code null}
+     * @param task the check itself
+     * @param fallbackVerdict verdict to use when the check times out
+     * @param deadlineNanos {@link System#nanoTime()} by which the verdict is due
+     * @return the result of the check
+     */
+    private CompletableFuture<CheckResult> runCheck(String check, FileContent content, Callable<Boolean> task,
+                                                    boolean fallbackVerdict, long deadlineNanos) {
+        long startNanos = System.nanoTime();
+        if (startNanos - deadlineNanos >= 0) {
+            return expiredCheck(check, fallbackVerdict);
+        }
+        FileContent reference = content != null ? content.retain() : null;
+        // Whoever claims the check first either runs it or, after a timeout, releases it without running
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletableFuture<Boolean> verdict = new CompletableFuture<>();
+        Future<?> execution;
+        try {
+            execution = fraudCheckExecutor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    verdict.complete(task.call());
+                } catch (Throwable t) {
+                    verdict.completeExceptionally(t);
+                } finally {
+                    release(reference);
+                }
+            });
+        } catch (RuntimeException e) {
+            release(reference);
+            throw e;
+        }
+        return withDeadline(check, startNanos, deadlineNanos, verdict, fallbackVerdict, () -> {
+            if (claimed.compareAndSet(false, true)) {
+                release(reference);
+            }
+            execution.cancel(true);
+        });
+    }
+
+    /**
+     * Runs a single non-blocking fraud check, with the same deadline and fallback handling as
+     * {@link #runCheck(String, FileContent, Callable, boolean, long)} but without occupying a check executor thread.
+     */
+    private CompletableFuture<CheckResult> runAsyncCheck(String check, Supplier<CompletableFuture<Boolean>> task,
+                                                         boolean fallbackVerdict, long deadlineNanos) {
+        long startNanos = System.nanoTime();
+        if (startNanos - deadlineNanos >= 0) {
+            return expiredCheck(check, fallbackVerdict);
+        }
+        CompletableFuture<Boolean> verdict = task.get();
+        return withDeadline(check, startNanos, deadlineNanos, verdict, fallbackVerdict, () -> verdict.cancel(true));
+    }
+
+    // An earlier tier used up the deadline; answered like a timeout, without calling the dependency
+    private CompletableFuture<CheckResult> expiredCheck(String check, boolean fallbackVerdict) {
+        countCheck(check, CheckResult.Outcome.TIMEOUT.tag());
+        return CompletableFuture.completedFuture(new CheckResult(fallbackVerdict, CheckResult.Outcome.TIMEOUT, 0));
+    }
+
+    private CompletableFuture<CheckResult> cachedCheck(String check, boolean verdict) {
+        countCheck(check, CheckResult.Outcome.CACHED.tag());
+        return CompletableFuture.completedFuture(new CheckResult(verdict, CheckResult.Outcome.CACHED, 0));
+    }
+
+    private CompletableFuture<CheckResult> skippedCheck(String check) {
+        countCheck(check, CheckResult.Outcome.SKIPPED.tag());
+        return CompletableFuture.completedFuture(new CheckResult(false, CheckResult.Outcome.SKIPPED, 0));
+    }
+
+    /**
+     * Count the checks that tiered evaluation would not have run for this verdict, so the calls it saves can be
+     * told from the audit results before switching to it.
+     */
+    private void countSkippableChecks(FraudVerdict verdict) {
+        boolean decided = verdict.content().fraud();
+        if (decided) {
+            meterRegistry.counter("fraud.check.skippable", "check", "legacy").increment();
+        }
+        decided |= verdict.legacy().fraud();
+        if (decided && verdict.ai().outcome() != CheckResult.Outcome.CACHED) {
+            meterRegistry.counter("fraud.check.skippable", "check", "ai").increment();
+        }
+    }
+
+    // Only verdicts a check produced are remembered; timeout fallbacks never reach these
+    private boolean rememberAIVerdict(String contentHash, boolean aiFraud) {
+        contentVerdictCache.recordAIVerdict(contentHash, aiFraud);
+        return aiFraud;
+    }
+
+    private boolean rememberContentVerdict(String contentHash, int rulesFingerprint, boolean contentFraud) {
+        contentVerdictCache.recordContentVerdict(contentHash, contentFraud, rulesFingerprint);
+        return contentFraud;
+    }
+
+    private CompletableFuture<CheckResult> withDeadline(String check, long startNanos, long deadlineNanos,
+                                                        CompletableFuture<Boolean> verdict, boolean fallbackVerdict,
+                                                        Runnable onTimeout) {
+        return verdict.orTimeout(deadlineNanos - startNanos, TimeUnit.NANOSECONDS)
+                .handle((result, failure) -> {
+                    long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+                    if (failure == null) {
+                        countCheck(check, CheckResult.Outcome.COMPLETED.tag());
+                        return new CheckResult(result, CheckResult.Outcome.COMPLETED, durationMicros);
+                    }
+                    if (failure instanceof TimeoutException) {
+                        onTimeout.run();
+                        countCheck(check, CheckResult.Outcome.TIMEOUT.tag());
+                        return new CheckResult(fallbackVerdict, CheckResult.Outcome.TIMEOUT, durationMicros);
+                    }
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    if (cause instanceof DependencyUnavailableException) {
+                        // Shed by the dependency's guard; answered like a timeout, without waiting for one
+                        countCheck(check, CheckResult.Outcome.REJECTED.tag());
+                        return new CheckResult(fallbackVerdict, CheckResult.Outcome.REJECTED, durationMicros);
+                    }
+                    countCheck(check, "failed");
+                    throw failure instanceof CompletionException completionException
+                            ? completionException : new CompletionException(failure);
+                });
+    }
+
+    private static void release(FileContent reference) {
+        if (reference != null) {
+            reference.close();
+        }
     }
 
+    private void countCheck(String check, String outcome) {
+        meterRegistry.counter("fraud.check.executions", "check", check, "outcome", outcome).increment();
+    }
+
+    private static CheckResult await(CompletableFuture<CheckResult> check) throws Exception {
+        try {
+            return check.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
     public boolean performAIFraudCheck(byte[] contentBytes, String contentType) throws Exception {
-        String base64Content = Base64.getEncoder().encodeToString(contentBytes);
-        String payloadJson = "{\"input\":\"" + base64Content + "\"}";
-        InvokeEndpointRequest request = InvokeEndpointRequest.builder()
-                .endpointName(fraudDetectionEndpoint)
-                .contentType("application/json")
-                .body(SdkBytes.fromUtf8String(payloadJson))
-                .build();
-        InvokeEndpointResponse response = sageMakerRuntimeClient.invokeEndpoint(request);
-        return response.sdkHttpResponse().statusCode() == 200 && response.body().asUtf8String().contains("fraud");
+        return performAIFraudCheck(ByteBuffer.wrap(contentBytes), contentType);
     }
 
-    public boolean checkContentFraud(byte[] contentBytes, String contentType) {
-        String contentString = new String(contentBytes);
-        return contentString.contains("fraud") || contentString.contains("illegal");
+    /**
+     * Perform fraud detection using SageMaker. Only the first {@code fraud.sagemaker.max-input-bytes} bytes are
+     * sent, which is all a real-time endpoint accepts and keeps the payload on the heap bounded for any file size.
+     * @throws DependencyUnavailableException if the endpoint is not called, its circuit breaker being open or its
+     * concurrency limit reached
+     */
+    public boolean performAIFraudCheck(ByteBuffer content, String contentType) throws Exception {
+        InvokeEndpointRequest request = buildInferenceRequest(content, contentType);
+        InvokeEndpointResponse response = sageMakerGuard.call(() -> pipelineMetrics.time(PipelineMetrics.SAGEMAKER,
+                () -> sageMakerRuntimeClient.invokeEndpoint(request)));
+        return isAIFraud(response);
     }
 
-    public void sendFraudDetectionResultToSQS(String userId, boolean aiFraud, boolean legacyFraud, boolean contentFraud) {
-        Map<String, String> messageMap = new HashMap<>();
-        messageMap.put("userId", userId);
-        messageMap.put("aiFraudCheck", String.valueOf(aiFraud));
-        messageMap.put("legacyFraudCheck", String.valueOf(legacyFraud));
-        messageMap.put("contentFraudCheck", String.valueOf(contentFraud));
-
-        // Convert map to JSON string for SQS message
-        String messageBody = messageMap.toString();
-
-        // Send message to SQS
-        SendMessageRequest sendMsgRequest = SendMessageRequest.builder()
-                .queueUrl(sqsQueueUrl)
-                .messageBody(messageBody)
-                .build();
+    /**
+     * Non-blocking variant of {@link #performAIFraudCheck(ByteBuffer, String)}. The request body is a copy of the
+     * input, so the content is free to be released while the request is sent; completing the returned verdict
+     * early, e.g. on a timeout, aborts the request. With batching enabled the input joins the next multi-record
+     * request of the {@link SageMakerInferenceBatcher} instead, which references the content until it is encoded.
+     * @param content file content to check
+     * @return whether the model flags the content as fraudulent
+     */
+    public CompletableFuture<Boolean> performAIFraudCheckAsync(FileContent content) {
+        if (sageMakerInferenceBatcher.isEnabled()) {
+            // Includes the time the input waits for its batch
+            return sageMakerGuard.callAsync(() -> pipelineMetrics.timeAsync(PipelineMetrics.SAGEMAKER,
+                    () -> sageMakerInferenceBatcher.submit(content, aiInput(content.asByteBuffer()))));
+        }
+        InvokeEndpointRequest request = buildInferenceRequest(content.asByteBuffer(), content.contentType());
+        CompletableFuture<InvokeEndpointResponse> response = sageMakerGuard.callAsync(() -> pipelineMetrics.timeAsync(
+                PipelineMetrics.SAGEMAKER, () -> sageMakerRuntimeAsyncClient.invokeEndpoint(request)));
+        CompletableFuture<Boolean> verdict = response.thenApply(FraudDetectionService::isAIFraud);
+        verdict.whenComplete((result, failure) -> {
+            if (!response.isDone()) {
+                response.cancel(true);
+            }
+        });
+        return verdict;
+    }
+
+    private InvokeEndpointRequest buildInferenceRequest(ByteBuffer content, String contentType) {
+        ByteBuffer input = aiInput(content);
+        InvokeEndpointRequest.Builder request = InvokeEndpointRequest.builder()
+                .endpointName(fraudDetectionEndpoint);
+        SdkBytes body;
+        if (payloadFormat == PayloadFormat.RAW) {
+            body = InferencePayloads.raw(input);
+            request.contentType(contentType != null ? contentType : "application/octet-stream");
+        } else {
+            body = InferencePayloads.base64Json(input);
+            request.contentType("application/json");
+        }
+        pipelineMetrics.recordPayloadSize(PipelineMetrics.SAGEMAKER, body.asByteBuffer().remaining());
+        return request.body(body).build();
+    }
 
-        sqsClient.sendMessage(sendMsgRequest);
+    private ByteBuffer aiInput(ByteBuffer content) {
+        ByteBuffer input = content.slice();
+        if (input.remaining() > maxAIInputBytes) {
+            input.limit(maxAIInputBytes);
+        }
+        return input;
     }
 
-    public String extractBucketName(String sqsMessage) {
-        return "my-bucket";
+    private static boolean isAIFraud(InvokeEndpointResponse response) {
+        return response.sdkHttpResponse().statusCode() == 200 && response.body().asUtf8String().contains("fraud");
     }
 
-    public String extractFileKey(String sqsMessage) {
-        return "myfile.txt";
+    public boolean checkContentFraud(byte[] contentBytes, String contentType) {
+        return checkContentFraud(ByteBuffer.wrap(contentBytes), contentType);
     }
 
-    public String extractUserId(String sqsMessage) {
-        return "userId";
+    /**
+     * Scan the raw bytes against the content rules in a single pass, without decoding them into a string first.
+     */
+    public boolean checkContentFraud(ByteBuffer content, String contentType) {
+        return contentScanner.matches(content);
+    }
+
+    public void sendFraudDetectionResultToSQS(String userId, boolean aiFraud, boolean legacyFraud, boolean contentFraud) {
+        sendFraudDetectionResultToSQS(new FraudVerdict(userId, aiFraud, legacyFraud, contentFraud));
+    }
+
+    /**
+     * Publish the verdict, with the result of every check, as JSON or in the compact binary format.
+     */
+    public void sendFraudDetectionResultToSQS(FraudVerdict verdict) {
+        String messageBody = fraudVerdictEncoder.encode(verdict);
+
+        // Hand the message to the publisher, which sends it to SQS as part of a batch
+        sqsResultPublisher.publish(messageBody);
     }
 }
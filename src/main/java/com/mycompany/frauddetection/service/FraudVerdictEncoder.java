@@ -0,0 +1,121 @@
+package com.mycompany.frauddetection.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mycompany.frauddetection.record.CheckResult;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Encodes fraud verdicts into result message bodies. JSON is written with a writer prepared once for
+ * {@link FraudVerdict}, so no serializers are looked up per message. The compact binary format is meant for
+ * internal consumers: a version byte, the user id, then per check one byte holding verdict and outcome and the
+ * duration as a varint, all Base64-encoded because SQS message bodies are text. It is read back with
+ * {@link #decodeBinary(String)}.
+ */
+@Component
+public class FraudVerdictEncoder {
+
+    public enum Format {
+        JSON,
+        BINARY
+    }
+
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writerFor(FraudVerdict.class);
+
+    private static final int BINARY_VERSION = 1;
+    private static final CheckResult.Outcome[] OUTCOMES = CheckResult.Outcome.values();
+
+    private final Format format;
+
+    public FraudVerdictEncoder(@Value("${fraud.publisher.format:json}") Format format) {
+        this.format = format;
+    }
+
+    /**
+     * @param verdict verdict to encode
+     * @return the verdict in the configured format
+     */
+    public String encode(FraudVerdict verdict) {
+        return format == Format.BINARY ? encodeBinary(verdict) : encodeJson(verdict);
+    }
+
+    public static String encodeJson(FraudVerdict verdict) {
+        try {
+            return JSON_WRITER.writeValueAsString(verdict);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode the verdict for user " + verdict.userId(), e);
+        }
+    }
+
+    public static String encodeBinary(FraudVerdict verdict) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + verdict.userId().length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(BINARY_VERSION);
+            out.writeUTF(verdict.userId());
+            writeCheck(out, verdict.ai());
+            writeCheck(out, verdict.legacy());
+            writeCheck(out, verdict.content());
+        } catch (IOException e) {
+            // Writing into memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param messageBody verdict in the binary format
+     * @return the decoded verdict
+     * @throws IllegalArgumentException if the body is not a verdict in a known version of the binary format
+     */
+    public static FraudVerdict decodeBinary(String messageBody) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(messageBody)))) {
+            int version = in.readUnsignedByte();
+            if (version != BINARY_VERSION) {
+                throw new IllegalArgumentException("Unknown binary verdict version " + version);
+            }
+            return new FraudVerdict(in.readUTF(), readCheck(in), readCheck(in), readCheck(in));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated binary verdict", e);
+        }
+    }
+
+    // Bit 0 holds the verdict, the bits above it the outcome ordinal plus one, zero meaning unknown
+    private static void writeCheck(DataOutputStream out, CheckResult check) throws IOException {
+        int outcome = check.outcome() == null ? 0 : check.outcome().ordinal() + 1;
+        out.writeByte(outcome << 1 | (check.fraud() ? 1 : 0));
+        long duration = check.durationMicros();
+        while ((duration & ~0x7FL) != 0) {
+            out.writeByte((int) (duration & 0x7F) | 0x80);
+            duration >>>= 7;
+        }
+        out.writeByte((int) duration);
+    }
+
+    private static CheckResult readCheck(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int outcome = flags >>> 1;
+        if (outcome > OUTCOMES.length) {
+            throw new IllegalArgumentException("Unknown check outcome " + outcome);
+        }
+        long duration = 0;
+        for (int shift = 0; ; shift += 7) {
+            int next = in.readUnsignedByte();
+            duration |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                break;
+            }
+        }
+        return new CheckResult((flags & 1) != 0, outcome == 0 ? null : OUTCOMES[outcome - 1], duration);
+    }
+}
@@ -0,0 +1,185 @@
+package com.mycompany.frauddetection.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recognizes input queue messages and files that were processed already, so a redelivery is acknowledged without
+ * running the pipeline again. Work is claimed with a conditional PutItem into a DynamoDB table before it starts and
+ * marked done once it succeeded; both records carry an expiry time in seconds, {@code expiresAt}, meant as the
+ * table's TTL attribute. A claim expires after the lease, so work whose consumer died is taken up again; it names
+ * its owner, so only the owner can give it up, not a slow consumer whose expired claim someone else took over. Keys known
+ * to be done are also kept in a bounded in-memory LRU cache, which answers most redeliveries without a DynamoDB call.
+ * <p>
+ * The store is an optimization: if DynamoDB cannot be reached the work is done anyway, as before.
+ */
+@Service
+public class IdempotencyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    /**
+     * Outcome of claiming a piece of work.
+     */
+    public enum Claim {
+        /** The caller does the work and then calls {@link #complete(String)} or {@link #release(String)} */
+        CLAIMED,
+        /** The work was done before */
+        DONE,
+        /** Someone else holds an unexpired claim on the work */
+        IN_PROGRESS
+    }
+
+    private static final String STATE_IN_PROGRESS = "in_progress";
+    private static final String STATE_DONE = "done";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String tableName;
+    private final Duration ttl;
+    private final Duration lease;
+    private final Cache<String, Boolean> done;
+
+    public IdempotencyStore(final DynamoDbClient dynamoDbClient, final MeterRegistry meterRegistry,
+                            @Value("${fraud.idempotency.enabled:true}") boolean enabled,
+                            @Value("${fraud.idempotency.table-name:processed-messages}") String tableName,
+                            @Value("${fraud.idempotency.maximum-size:100000}") long maximumSize,
+                            @Value("${fraud.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${fraud.idempotency.lease:5m}") Duration lease) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.tableName = tableName;
+        this.ttl = ttl;
+        this.lease = lease;
+        this.done = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, done, "idempotency.done");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Claim a piece of work, unless it was done before or someone else is doing it.
+     * @param key what identifies the work, e.g. a message id
+     * @param owner token unique to the caller, to release the claim with
+     * @return the outcome of the claim; always {@link Claim#CLAIMED} when the store is disabled or unreachable
+     */
+    public Claim claim(String key, String owner) {
+        if (!enabled) {
+            return Claim.CLAIMED;
+        }
+        if (done.getIfPresent(key) != null) {
+            return count(Claim.DONE);
+        }
+        long now = epochSeconds();
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                    .tableName(tableName)
+                    .item(Map.of(
+                            "id", AttributeValue.fromS(key),
+                            "state", AttributeValue.fromS(STATE_IN_PROGRESS),
+                            "owner", AttributeValue.fromS(owner),
+                            "expiresAt", AttributeValue.fromN(Long.toString(now + lease.toSeconds()))))
+                    .conditionExpression("attribute_not_exists(id) OR expiresAt < :now")
+                    .expressionAttributeValues(Map.of(":now", AttributeValue.fromN(Long.toString(now))))
+                    .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+                    .build());
+            return count(Claim.CLAIMED);
+        } catch (ConditionalCheckFailedException e) {
+            AttributeValue state = e.hasItem() ? e.item().get("state") : null;
+            if (state != null && STATE_DONE.equals(state.s())) {
+                done.put(key, Boolean.TRUE);
+                return count(Claim.DONE);
+            }
+            return count(Claim.IN_PROGRESS);
+        } catch (SdkException e) {
+            log.warn("Could not claim {}, processing it without a claim", key, e);
+            return count(Claim.CLAIMED);
+        }
+    }
+
+    /**
+     * Mark claimed work as done, so it is not done again within the TTL.
+     */
+    public void complete(String key) {
+        if (!enabled) {
+            return;
+        }
+        done.put(key, Boolean.TRUE);
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                    .tableName(tableName)
+                    .item(item(key, STATE_DONE, epochSeconds() + ttl.toSeconds()))
+                    .build());
+        } catch (SdkException e) {
+            // This instance still knows; a redelivery elsewhere is processed again
+            log.warn("Could not record {} as done", key, e);
+        }
+    }
+
+    /**
+     * Give up a claim after the work failed, so a redelivery may claim it right away. A claim that expired and was
+     * taken over by someone else is left alone.
+     * @param owner the token the work was claimed with
+     */
+    public void release(String key, String owner) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            dynamoDbClient.deleteItem(DeleteItemRequest.builder()
+                    .tableName(tableName)
+                    .key(Map.of("id", AttributeValue.fromS(key)))
+                    .conditionExpression("#state = :inProgress AND #owner = :owner")
+                    .expressionAttributeNames(Map.of("#state", "state", "#owner", "owner"))
+                    .expressionAttributeValues(Map.of(
+                            ":inProgress", AttributeValue.fromS(STATE_IN_PROGRESS),
+                            ":owner", AttributeValue.fromS(owner)))
+                    .build());
+        } catch (ConditionalCheckFailedException e) {
+            // Done or claimed by someone else in the meantime
+        } catch (SdkException e) {
+            log.warn("Could not release the claim on {}, it expires after {}", key, lease, e);
+        }
+    }
+
+    private Claim count(Claim claim) {
+        meterRegistry.counter("fraud.idempotency.claims", "outcome", claim.name().toLowerCase(Locale.ROOT)).increment();
+        return claim;
+    }
+
+    private static Map<String, AttributeValue> item(String key, String state, long expiresAt) {
+        return Map.of(
+                "id", AttributeValue.fromS(key),
+                "state", AttributeValue.fromS(state),
+                "expiresAt", AttributeValue.fromN(Long.toString(expiresAt)));
+    }
+
+    private static long epochSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
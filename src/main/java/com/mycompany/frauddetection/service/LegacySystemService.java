@@ -1,23 +1,287 @@
 package com.mycompany.frauddetection.service;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mycompany.frauddetection.batch.MicroBatcher;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 public class LegacySystemService {
 
+    /**
+     * How calls to the legacy system are made: blocking on a {@link RestTemplate}, or non-blocking on a
+     * {@link WebClient} with a pooled connector.
+     */
+    public enum ClientMode {
+        REST_TEMPLATE,
+        WEB_CLIENT
+    }
+
+    private static final ParameterizedTypeReference<Map<String, Boolean>> BULK_VERDICTS =
+            new ParameterizedTypeReference<>() {
+            };
+
     @Value("${legacy.system.url}")
     private String legacySystemUrl;
 
+    @Value("${legacy.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${legacy.batch.bulk-endpoint:false}")
+    private boolean bulkEndpoint;
+
+    @Value("${legacy.batch.max-size:50}")
+    private int batchMaxSize;
+
+    @Value("${legacy.batch.window:5ms}")
+    private Duration batchWindow;
+
+    @Value("${legacy.batch.max-concurrent-calls:16}")
+    private int maxConcurrentCalls;
+
     RestTemplate restTemplate;
-    public LegacySystemService(final RestTemplate restTemplate) {
+
+    private final WebClient legacyWebClient;
+
+    private final ClientMode clientMode;
+
+    private final DependencyGuard legacyGuard;
+
+    // Verdicts by userId; an entry holds the pending lookup while it is in flight, so concurrent lookups share it
+    private final AsyncCache<String, Boolean> verdictCache;
+
+    // Only set while batching is enabled
+    private MicroBatcher<String, Boolean> lookupBatcher;
+    private ExecutorService lookupExecutor;
+
+    public LegacySystemService(final RestTemplate restTemplate, final WebClient legacyWebClient,
+                               final MeterRegistry meterRegistry,
+                               @Qualifier("legacyGuard") final DependencyGuard legacyGuard,
+                               @Value("${legacy.client.mode:rest-template}") ClientMode clientMode,
+                               @Value("${legacy.cache.maximum-size:100000}") long cacheMaximumSize,
+                               @Value("${legacy.cache.fraud-ttl:30m}") Duration fraudTtl,
+                               @Value("${legacy.cache.clean-ttl:5m}") Duration cleanTtl) {
         this.restTemplate = restTemplate;
+        this.legacyWebClient = legacyWebClient;
+        this.clientMode = clientMode;
+        this.legacyGuard = legacyGuard;
+        this.verdictCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfter(new VerdictExpiry(fraudTtl, cleanTtl))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, verdictCache.synchronous(), "legacy.verdicts");
+    }
+
+    /**
+     * With batching enabled, lookups that miss the cache are collected for up to the batch window and sent
+     * together: as one call to the bulk endpoint when the legacy system offers it, otherwise as single calls of
+     * which at most {@code max-concurrent-calls} are in flight per batch.
+     */
+    @PostConstruct
+    public void startBatching() {
+        if (!batchEnabled || lookupBatcher != null) {
+            return;
+        }
+        if (clientMode == ClientMode.REST_TEMPLATE) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("legacy-lookup-");
+            threadFactory.setDaemon(true);
+            lookupExecutor = Executors.newFixedThreadPool(maxConcurrentCalls, threadFactory);
+        }
+        lookupBatcher = new MicroBatcher<>("legacy-lookup", batchMaxSize, Long.MAX_VALUE, batchWindow,
+                this::fetchBatch);
     }
 
+    @PreDestroy
+    public void stopBatching() {
+        if (lookupBatcher != null) {
+            lookupBatcher.close();
+        }
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Check whether the legacy system flags the user as fraudulent. Verdicts are cached, with separate TTLs for
+     * fraudulent and clean users, and concurrent lookups for the same user make a single call to the legacy system.
+     * @param userId user to check
+     * @return whether the user is fraudulent
+     * @throws com.mycompany.frauddetection.resilience.DependencyUnavailableException if the legacy system is not
+     * called, its circuit breaker being open or its concurrency limit reached
+     */
     public boolean checkUserFraud(String userId) {
+        try {
+            return lookupVerdict(userId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #checkUserFraud(String)}, sharing its cache. In web-client mode no thread
+     * waits for the legacy system; in rest-template mode the blocking call is moved to a bounded elastic thread.
+     * @param userId user to check
+     * @return whether the user is fraudulent
+     */
+    public Mono<Boolean> checkUserFraudAsync(String userId) {
+        if (clientMode == ClientMode.WEB_CLIENT) {
+            // Cancelling one subscriber must not cancel a lookup other callers are waiting for
+            return Mono.fromFuture(() -> lookupVerdict(userId), true);
+        }
+        return Mono.fromCallable(() -> checkUserFraud(userId)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * @return whether {@link #checkUserFraudAsync(String)} waits for the legacy system without holding a thread
+     */
+    public boolean isNonBlocking() {
+        return clientMode == ClientMode.WEB_CLIENT;
+    }
+
+    private CompletableFuture<Boolean> lookupVerdict(String userId) {
+        CompletableFuture<Boolean> lookup = new CompletableFuture<>();
+        CompletableFuture<Boolean> verdict = verdictCache.get(userId, (key, executor) -> lookup);
+        if (verdict == lookup) {
+            // This caller owns the lookup; everyone else asking for the user meanwhile waits for it, so it must
+            // complete whatever happens, or the cached lookup would hold every later caller of the user forever
+            CompletableFuture<Boolean> call;
+            try {
+                call = legacyGuard.callAsync(() -> fetchVerdict(userId));
+            } catch (Throwable t) {
+                lookup.completeExceptionally(t);
+                return verdict;
+            }
+            call.whenComplete((isFraud, failure) -> {
+                if (failure == null) {
+                    lookup.complete(isFraud);
+                } else {
+                    lookup.completeExceptionally(failure);
+                }
+            });
+        }
+        return verdict;
+    }
+
+    private CompletableFuture<Boolean> fetchVerdict(String userId) {
+        if (lookupBatcher != null) {
+            return lookupBatcher.submit(userId, 1);
+        }
+        if (clientMode == ClientMode.WEB_CLIENT) {
+            return fetchUserFraudAsync(userId).toFuture();
+        }
+        try {
+            return CompletableFuture.completedFuture(fetchUserFraud(userId));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CacheStats getCacheStats() {
+        return verdictCache.synchronous().stats();
+    }
+
+    private boolean fetchUserFraud(String userId) {
         String url = legacySystemUrl + "/checkFraud?userId=" + userId;
         Boolean isFraud = restTemplate.getForObject(url, Boolean.class);
         return Boolean.TRUE.equals(isFraud);
     }
+
+    private Mono<Boolean> fetchUserFraudAsync(String userId) {
+        return legacyWebClient.get()
+                .uri(legacySystemUrl + "/checkFraud?userId={userId}", userId)
+                .retrieve()
+                .bodyToMono(Boolean.class)
+                .map(Boolean.TRUE::equals)
+                .defaultIfEmpty(false);
+    }
+
+    private List<CompletableFuture<Boolean>> fetchBatch(List<String> userIds) {
+        if (bulkEndpoint) {
+            CompletableFuture<Map<String, Boolean>> verdicts = clientMode == ClientMode.WEB_CLIENT
+                    ? fetchBulkAsync(userIds).toFuture()
+                    : CompletableFuture.supplyAsync(() -> fetchBulk(userIds), lookupExecutor);
+            // Users the legacy system does not know are not fraudulent, as with single lookups
+            return userIds.stream()
+                    .map(userId -> verdicts.thenApply(byUser -> Boolean.TRUE.equals(byUser.get(userId))))
+                    .toList();
+        }
+        if (clientMode == ClientMode.REST_TEMPLATE) {
+            return userIds.stream()
+                    .map(userId -> CompletableFuture.supplyAsync(() -> fetchUserFraud(userId), lookupExecutor))
+                    .toList();
+        }
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(userIds.size());
+        userIds.forEach(userId -> results.add(new CompletableFuture<>()));
+        Flux.range(0, userIds.size())
+                .flatMap(i -> fetchUserFraudAsync(userIds.get(i))
+                        .doOnNext(isFraud -> results.get(i).complete(isFraud))
+                        .doOnError(failure -> results.get(i).completeExceptionally(failure))
+                        .onErrorResume(failure -> Mono.empty()), maxConcurrentCalls)
+                .subscribe();
+        return results;
+    }
+
+    private Map<String, Boolean> fetchBulk(List<String> userIds) {
+        Map<String, Boolean> verdicts = restTemplate.exchange(legacySystemUrl + "/checkFraud/bulk", HttpMethod.POST,
+                new HttpEntity<>(userIds), BULK_VERDICTS).getBody();
+        return verdicts == null ? Map.of() : verdicts;
+    }
+
+    private Mono<Map<String, Boolean>> fetchBulkAsync(List<String> userIds) {
+        return legacyWebClient.post()
+                .uri(legacySystemUrl + "/checkFraud/bulk")
+                .bodyValue(userIds)
+                .retrieve()
+                .bodyToMono(BULK_VERDICTS)
+                .defaultIfEmpty(Map.of());
+    }
+
+    private record VerdictExpiry(Duration fraudTtl, Duration cleanTtl) implements Expiry<String, Boolean> {
+
+        @Override
+        public long expireAfterCreate(String userId, Boolean isFraud, long currentTime) {
+            return (isFraud ? fraudTtl : cleanTtl).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String userId, Boolean isFraud, long currentTime, long currentDuration) {
+            return expireAfterCreate(userId, isFraud, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String userId, Boolean isFraud, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
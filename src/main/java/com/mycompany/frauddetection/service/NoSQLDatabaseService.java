@@ -1,14 +1,317 @@
 package com.mycompany.frauddetection.service;
 
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists content metadata and fraud detection results to DynamoDB, write-behind: records are queued and written
+ * with BatchWriteItem once 25 are pending or the oldest one has waited for the flush deadline, so persistence adds
+ * no latency to a verdict. Items DynamoDB leaves unprocessed are retried with backoff, and written on their own with
+ * PutItem once their attempts are used up, since the message they came from is gone by then; on shutdown everything
+ * still pending is flushed. Each retry waits for its own due time while fresh items keep being written, and fresh
+ * items are guaranteed half of every batch, so a throttled table slows the writer down without filling the queue
+ * with fresh items stuck behind retries. Only metadata and the content hash are stored, never the content itself.
+ */
 @Service
-public class NoSQLDatabaseService {
+public class NoSQLDatabaseService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(NoSQLDatabaseService.class);
+
+    // Limit of a single BatchWriteItem call
+    private static final int MAX_BATCH_SIZE = 25;
+
+    // How often an idle flusher re-checks whether it should stop
+    private static final long IDLE_POLL_MS = 100;
+
+    // Backoff before retrying unprocessed items doubles per attempt up to this
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    @Value("${fraud.nosql.table-name:content-metadata}")
+    private String tableName;
+
+    @Value("${fraud.nosql.max-wait-ms:100}")
+    private long maxWaitMs;
+
+    @Value("${fraud.nosql.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${fraud.nosql.capacity:10000}")
+    private int capacity;
+
+    @Value("${fraud.nosql.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final PipelineMetrics pipelineMetrics;
+
+    // Unprocessed items waiting for their next attempt, by due time, and the one retry still scheduled per key;
+    // a queued retry whose key maps to another write was superseded and is skipped. Only touched by the flusher
+    private final PriorityQueue<PendingWrite> retries =
+            new PriorityQueue<>((a, b) -> Long.signum(a.dueNanos() - b.dueNanos()));
+    private final Map<String, PendingWrite> scheduledRetries = new HashMap<>();
+
+    private volatile boolean running;
+    private BlockingQueue<PendingWrite> pending;
+    private Thread flusher;
+
+    public NoSQLDatabaseService(final DynamoDbClient dynamoDbClient, final PipelineMetrics pipelineMetrics) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Queue the metadata and fraud detection results of a file for writing. Blocks while {@code capacity} writes
+     * are already pending. If the writer is not running the item is written right away with PutItem.
+     * @param userId user who uploaded the file
+     * @param contentHash hash of the file content
+     * @param contentLength size of the file in bytes
+     * @param contentType content type of the file
+     * @param aiFraudCheck verdict of the SageMaker check; this and the other verdicts are {@code null} for a skipped
+     * check and stored as NULL, so they are not mistaken for a clean verdict
+     */
+    public void updateContentMetadata(String userId, String contentHash, long contentLength, String contentType,
+                                      Boolean aiFraudCheck, Boolean legacyFraudCheck, Boolean contentFraudCheck) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("userId", AttributeValue.fromS(userId));
+        item.put("contentHash", AttributeValue.fromS(contentHash));
+        item.put("contentLength", AttributeValue.fromN(Long.toString(contentLength)));
+        if (contentType != null) {
+            item.put("contentType", AttributeValue.fromS(contentType));
+        }
+        item.put("aiFraudCheck", verdict(aiFraudCheck));
+        item.put("legacyFraudCheck", verdict(legacyFraudCheck));
+        item.put("contentFraudCheck", verdict(contentFraudCheck));
+        item.put("checkedAt", AttributeValue.fromN(Long.toString(System.currentTimeMillis())));
+
+        if (!running) {
+            putItem(item);
+            return;
+        }
+        PendingWrite write = new PendingWrite(userId + '\u0000' + contentHash, item, 1, 0);
+        try {
+            pending.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing content metadata", e);
+        }
+        // The writer may have stopped and drained the queue for the last time in between; whatever it did not
+        // take is written here
+        if (!running && pending.remove(write)) {
+            putItem(item);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        pending = new LinkedBlockingQueue<>(capacity);
+        running = true;
+        flusher = new Thread(this::flushLoop, "nosql-writer");
+        flusher.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        // The flusher drains whatever is still pending before it exits
+        running = false;
+        try {
+            flusher.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("Content metadata writer did not flush {} pending items within {} ms",
+                    pending.size() + scheduledRetries.size(), shutdownTimeoutMs);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the message consumer, so metadata of messages drained on shutdown is still written.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 1;
+    }
+
+    private void flushLoop() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !pending.isEmpty() || !scheduledRetries.isEmpty()) {
+            try {
+                collectBatch(batch);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void collectBatch(List<PendingWrite> batch) throws InterruptedException {
+        // Due retries leave room for the fresh items already waiting, up to half of the batch
+        takeDueRetries(batch, MAX_BATCH_SIZE - Math.min(pending.size(), MAX_BATCH_SIZE / 2));
+        if (batch.isEmpty()) {
+            // Wake up in time for the next retry
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MS);
+            PendingWrite nextRetry = nextRetry();
+            if (nextRetry != null) {
+                idleNanos = Math.max(0, Math.min(idleNanos, nextRetry.dueNanos() - System.nanoTime()));
+            }
+            PendingWrite first = pending.poll(idleNanos, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                return;
+            }
+            addFresh(batch, first);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        while (batch.size() < MAX_BATCH_SIZE) {
+            long remaining = deadline - System.nanoTime();
+            PendingWrite next = remaining > 0 && running
+                    ? pending.poll(remaining, TimeUnit.NANOSECONDS)
+                    : pending.poll();
+            if (next == null) {
+                break;
+            }
+            addFresh(batch, next);
+        }
+        // Retries that fell due while the batch filled up
+        takeDueRetries(batch, MAX_BATCH_SIZE);
+    }
+
+    private void addFresh(List<PendingWrite> batch, PendingWrite write) {
+        // A retry of an older write to the same item would overwrite this one
+        scheduledRetries.remove(write.key());
+        batch.add(write);
+    }
+
+    private void takeDueRetries(List<PendingWrite> batch, int limit) {
+        long now = System.nanoTime();
+        PendingWrite retry;
+        while (batch.size() < limit && (retry = nextRetry()) != null && now - retry.dueNanos() >= 0) {
+            retries.poll();
+            scheduledRetries.remove(retry.key());
+            batch.add(retry);
+        }
+    }
+
+    /**
+     * @return the retry due first, without taking it, after dropping superseded ones; {@code null} if there is none
+     */
+    private PendingWrite nextRetry() {
+        PendingWrite retry;
+        while ((retry = retries.peek()) != null && scheduledRetries.get(retry.key()) != retry) {
+            retries.poll();
+        }
+        return retry;
+    }
+
+    private void write(List<PendingWrite> batch) {
+        // BatchWriteItem rejects two writes to the same item, so only the latest one per key is sent
+        Map<String, PendingWrite> latest = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            latest.put(write.key(), write);
+        }
+        List<WriteRequest> requests = new ArrayList<>(latest.size());
+        Map<Map<String, AttributeValue>, PendingWrite> byItem = new HashMap<>();
+        for (PendingWrite write : latest.values()) {
+            requests.add(WriteRequest.builder()
+                    .putRequest(PutRequest.builder().item(write.item()).build())
+                    .build());
+            byItem.put(write.item(), write);
+        }
+
+        List<PendingWrite> unprocessed = new ArrayList<>();
+        try {
+            BatchWriteItemResponse response = pipelineMetrics.time(PipelineMetrics.NOSQL_WRITE,
+                    () -> dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                            .requestItems(Map.of(tableName, requests))
+                            .build()));
+            for (WriteRequest request : response.unprocessedItems().getOrDefault(tableName, List.of())) {
+                PendingWrite write = byItem.get(request.putRequest().item());
+                if (write != null) {
+                    unprocessed.add(write);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Writing a batch of {} content metadata items failed", requests.size(), e);
+            unprocessed.addAll(latest.values());
+        }
+        unprocessed.forEach(this::retry);
+    }
+
+    private void retry(PendingWrite write) {
+        if (write.attempt() >= maxAttempts) {
+            writeAlone(write);
+            return;
+        }
+        // Unprocessed items mean the table is throttling; give it room before this item's next attempt
+        long backoffMs = Math.min(MAX_BACKOFF_MS, 25L << Math.min(write.attempt(), 10));
+        PendingWrite retry = new PendingWrite(write.key(), write.item(), write.attempt() + 1,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs));
+        retries.add(retry);
+        scheduledRetries.put(retry.key(), retry);
+    }
+
+    /**
+     * Last resort for a write whose batch attempts are used up: a single PutItem, with the client's own retries.
+     */
+    private void writeAlone(PendingWrite write) {
+        try {
+            putItem(write.item());
+        } catch (RuntimeException e) {
+            pipelineMetrics.recordDropped(PipelineMetrics.NOSQL_WRITE);
+            log.error("Giving up on content metadata for {} after {} attempts", write.key(), write.attempt() + 1, e);
+        }
+    }
+
+    private static AttributeValue verdict(Boolean fraud) {
+        return fraud == null ? AttributeValue.fromNul(true) : AttributeValue.fromBool(fraud);
+    }
+
+    private void putItem(Map<String, AttributeValue> item) {
+        pipelineMetrics.record(PipelineMetrics.NOSQL_WRITE, () -> dynamoDbClient.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(item)
+                .build()));
+    }
 
-    // Simulating interaction with MongoDB
-    public void updateContentMetadata(String userId, byte[] content, String contentType, 
-                                      boolean aiFraudCheck, boolean legacyFraudCheck, boolean contentFraudCheck) {
-        // Logic to update MongoDB with content metadata and fraud detection results
-        System.out.println("Updating MongoDB with metadata for user: " + userId);
+    /**
+     * @param dueNanos when a retry may be sent, by {@link System#nanoTime()}; unused for fresh items
+     */
+    private record PendingWrite(String key, Map<String, AttributeValue> item, int attempt, long dueNanos) {
     }
 }
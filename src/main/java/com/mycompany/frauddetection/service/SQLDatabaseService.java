@@ -1,13 +1,153 @@
 package com.mycompany.frauddetection.service;
 
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the fraud status of users in the SQL database. Status changes are coalesced per user and written on a short
+ * interval as one JDBC batch of upserts in a single transaction, so a user flagged by a burst of messages costs one
+ * row write per flush and database round trips scale with unique users rather than messages. On shutdown pending
+ * changes are written once the message consumer has stopped.
+ */
 @Service
-public class SQLDatabaseService {
+public class SQLDatabaseService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SQLDatabaseService.class);
+
+    @Value("${fraud.sql.upsert-statement:INSERT INTO user_fraud_status (user_id, is_fraud, updated_at) "
+            + "VALUES (?, ?, CURRENT_TIMESTAMP) ON CONFLICT (user_id) "
+            + "DO UPDATE SET is_fraud = EXCLUDED.is_fraud, updated_at = EXCLUDED.updated_at}")
+    private String upsertStatement;
+
+    @Value("${fraud.sql.batch-size:500}")
+    private int batchSize;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PipelineMetrics pipelineMetrics;
+
+    // Latest status per user not yet written; a newer change for the same user replaces the older one
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
 
-    // Simulating interaction with SQL database
+    public SQLDatabaseService(final JdbcTemplate jdbcTemplate, final TransactionTemplate transactionTemplate,
+                              final PipelineMetrics pipelineMetrics) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Record the fraud status of a user; it is written with the next flush.
+     */
     public void updateUserFraudStatus(String userId, boolean isFraud) {
-        // Logic to update SQL database with user fraud status
-        System.out.println("Updating SQL DB for user: " + userId + " with fraud status: " + isFraud);
+        pending.put(userId, isFraud);
+    }
+
+    /**
+     * Write all pending status changes in one transaction. If the database is unavailable the changes are put back,
+     * unless a newer change for the same user arrived in the meantime, and are retried with the next flush. If the
+     * batch is rejected for good, e.g. by a constraint, its rows are written one by one instead, so a bad row is
+     * dropped on its own rather than failing the batch with every flush.
+     */
+    @Scheduled(fixedDelayString = "${fraud.sql.flush-interval-ms:200}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Boolean>> updates = new ArrayList<>(pending.size());
+        for (String userId : pending.keySet()) {
+            Boolean isFraud = pending.remove(userId);
+            if (isFraud != null) {
+                updates.add(Map.entry(userId, isFraud));
+            }
+        }
+        try {
+            pipelineMetrics.record(PipelineMetrics.SQL_WRITE, () -> transactionTemplate.executeWithoutResult(
+                    status -> jdbcTemplate.batchUpdate(upsertStatement, updates, batchSize, (statement, update) -> {
+                        statement.setString(1, update.getKey());
+                        statement.setBoolean(2, update.getValue());
+                    })));
+        } catch (DataAccessException | TransactionException e) {
+            if (isTransient(e)) {
+                log.warn("Writing fraud status of {} users failed, retrying with the next flush", updates.size(), e);
+                updates.forEach(update -> pending.putIfAbsent(update.getKey(), update.getValue()));
+            } else {
+                log.warn("Batch of fraud status of {} users rejected, writing them one by one", updates.size(), e);
+                updates.forEach(this::writeAlone);
+            }
+        }
+    }
+
+    private void writeAlone(Map.Entry<String, Boolean> update) {
+        try {
+            pipelineMetrics.record(PipelineMetrics.SQL_WRITE,
+                    () -> jdbcTemplate.update(upsertStatement, update.getKey(), update.getValue()));
+        } catch (DataAccessException e) {
+            if (isTransient(e)) {
+                pending.putIfAbsent(update.getKey(), update.getValue());
+                return;
+            }
+            pipelineMetrics.recordDropped(PipelineMetrics.SQL_WRITE);
+            log.error("Fraud status of user {} rejected by the database, dropping it", update.getKey(), e);
+        }
+    }
+
+    // Failures that may go away by themselves, as opposed to statements the database will never accept. A lost or
+    // refused connection (SQLState 08, CannotGetJdbcConnectionException) is a resource failure
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException || e instanceof TransactionException;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flush();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the message consumer, so the status of users flagged by messages drained on shutdown is written.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 1;
+    }
+
+    /**
+     * Write whatever is still pending before the application shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        flush();
     }
 }
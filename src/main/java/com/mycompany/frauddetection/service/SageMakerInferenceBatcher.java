@@ -0,0 +1,143 @@
+package com.mycompany.frauddetection.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.mycompany.frauddetection.batch.MicroBatcher;
+import com.mycompany.frauddetection.io.InferencePayloads;
+import com.mycompany.frauddetection.record.FileContent;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeAsyncClient;
+import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointRequest;
+import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Groups concurrent AI checks into multi-record SageMaker requests. Inputs are collected until the batch holds
+ * {@code max-size} inputs or {@code max-bytes} of payload, or its oldest input waited for {@code max-wait}, and are
+ * then sent as one {@code {"instances":[{"input":"<base64>"},...]}} document. The endpoint answers with one
+ * prediction per instance, either as a JSON array or as {@code {"predictions":[...]}}; as for single requests, a
+ * prediction mentioning "fraud" flags its input.
+ */
+@Service
+public class SageMakerInferenceBatcher {
+
+    private static final ObjectReader RESPONSE_READER = new ObjectMapper().reader();
+
+    private final SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient;
+
+    private final String endpointName;
+
+    // Only set while batching is enabled
+    private final MicroBatcher<BatchedInput, Boolean> batcher;
+
+    public SageMakerInferenceBatcher(final SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient,
+                                     @Value("${fraud.sagemaker.endpoint-name:<my-sagemaker-endpoint>}") String endpointName,
+                                     @Value("${fraud.sagemaker.batch.enabled:false}") boolean enabled,
+                                     @Value("${fraud.sagemaker.batch.max-size:16}") int maxBatchSize,
+                                     @Value("${fraud.sagemaker.batch.max-bytes:5242880}") long maxBatchBytes,
+                                     @Value("${fraud.sagemaker.batch.max-wait:10ms}") Duration maxWait) {
+        if (enabled && maxBatchBytes > InferencePayloads.MAX_BATCH_DOCUMENT_BYTES) {
+            throw new IllegalArgumentException("fraud.sagemaker.batch.max-bytes=" + maxBatchBytes
+                    + " exceeds the SageMaker request limit; at most " + InferencePayloads.MAX_BATCH_DOCUMENT_BYTES + " bytes fit");
+        }
+        this.sageMakerRuntimeAsyncClient = sageMakerRuntimeAsyncClient;
+        this.endpointName = endpointName;
+        this.batcher = enabled
+                ? new MicroBatcher<>("sagemaker", maxBatchSize, maxBatchBytes, maxWait, this::invokeBatch)
+                : null;
+    }
+
+    public boolean isEnabled() {
+        return batcher != null;
+    }
+
+    /**
+     * Queue an input for the next batch. The content is referenced until the input was encoded into a request.
+     * @param content file content the input belongs to
+     * @param input bytes of the content to send
+     * @return whether the model flags the input as fraudulent
+     */
+    public CompletableFuture<Boolean> submit(FileContent content, ByteBuffer input) {
+        BatchedInput batchedInput = new BatchedInput(input, content.retain(), new AtomicBoolean());
+        // The payload separator between instances counts towards the batch size as well
+        CompletableFuture<Boolean> verdict = batcher.submit(batchedInput,
+                InferencePayloads.base64JsonLength(input.remaining()) + 1L);
+        verdict.whenComplete((result, failure) -> batchedInput.release());
+        return verdict;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    private List<CompletableFuture<Boolean>> invokeBatch(List<BatchedInput> batch) {
+        SdkBytes payload;
+        try {
+            payload = InferencePayloads.base64JsonBatch(batch.stream().map(BatchedInput::input).toList());
+        } finally {
+            batch.forEach(BatchedInput::release);
+        }
+        CompletableFuture<List<Boolean>> verdicts = sageMakerRuntimeAsyncClient.invokeEndpoint(InvokeEndpointRequest.builder()
+                        .endpointName(endpointName)
+                        .contentType("application/json")
+                        .body(payload)
+                        .build())
+                .thenApply(response -> splitVerdicts(response, batch.size()));
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            int index = i;
+            results.add(verdicts.thenApply(all -> all.get(index)));
+        }
+        return results;
+    }
+
+    private static List<Boolean> splitVerdicts(InvokeEndpointResponse response, int expected) {
+        int status = response.sdkHttpResponse().statusCode();
+        if (status != 200) {
+            // Fails every input of the batch, so each check gets its fallback instead of a clean verdict
+            throw new IllegalStateException("SageMaker endpoint answered a batch of " + expected
+                    + " inputs with status " + status);
+        }
+        JsonNode root;
+        try (InputStream body = response.body().asInputStream()) {
+            root = RESPONSE_READER.readTree(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable batch response from the SageMaker endpoint", e);
+        }
+        JsonNode predictions = root.isArray() ? root : root.path("predictions");
+        if (!predictions.isArray() || predictions.size() != expected) {
+            throw new IllegalStateException("Expected " + expected + " predictions from the SageMaker endpoint");
+        }
+        List<Boolean> verdicts = new ArrayList<>(expected);
+        for (JsonNode prediction : predictions) {
+            String text = prediction.isTextual() ? prediction.asText() : prediction.toString();
+            verdicts.add(text.contains("fraud"));
+        }
+        return verdicts;
+    }
+
+    private record BatchedInput(ByteBuffer input, FileContent reference, AtomicBoolean released) {
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                reference.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.mycompany.frauddetection.service;
+
+import com.mycompany.frauddetection.risk.UserThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-polls the input queue and hands every message to a bounded pool of workers running
+ * {@link FraudDetectionService#receiveMessage(String, String)}. The poller only asks SQS for as many messages as there are
+ * idle workers, so it stops polling while in-flight work is full. Messages are deleted only after they were
+ * processed successfully; failed messages become visible again and are redelivered. Messages of a throttled user
+ * are redelivered once the user is let through again, messages another consumer is processing after
+ * {@code fraud.consumer.in-progress-delay-seconds}.
+ * <p>
+ * On shutdown polling stops first and the messages in flight get {@code fraud.consumer.shutdown-timeout-ms} to
+ * finish. The workers still busy then are interrupted, and each message whose worker stops is released back to the
+ * queue right away, by setting its visibility timeout to zero, rather than after its visibility timeout runs out.
+ * A message whose worker does not stop is left to its visibility timeout, so no other consumer gets it while it
+ * may still be processed here. The consumer stops before the publishers and writers of results, so the results of
+ * drained messages are still flushed.
+ */
+@Service
+@ConditionalOnProperty(name = "fraud.consumer.enabled", havingValue = "true", matchIfMissing = true)
+public class SqsMessageConsumer implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SqsMessageConsumer.class);
+
+    // SQS returns at most 10 messages per ReceiveMessage call and accepts at most 10 entries per batch call
+    private static final int MAX_BATCH_SIZE = 10;
+
+    // How long interrupted workers get to stop on shutdown
+    private static final long INTERRUPTED_WORKERS_TIMEOUT_MS = 1000;
+
+    @Value("${fraud.consumer.queue-url}")
+    private String queueUrl;
+
+    @Value("${fraud.consumer.concurrency:16}")
+    private int concurrency;
+
+    @Value("${fraud.consumer.wait-time-seconds:20}")
+    private int waitTimeSeconds;
+
+    @Value("${fraud.consumer.visibility-timeout-seconds:60}")
+    private int visibilityTimeoutSeconds;
+
+    @Value("${fraud.consumer.in-progress-delay-seconds:10}")
+    private int inProgressDelaySeconds;
+
+    @Value("${fraud.consumer.shutdown-timeout-ms:20000}")
+    private long shutdownTimeoutMs;
+
+    private final SqsClient sqsClient;
+    private final FraudDetectionService fraudDetectionService;
+
+    // Messages currently being processed, keyed by message id
+    private final Map<String, Message> inFlight = new ConcurrentHashMap<>();
+
+    // Held while messages leave inFlight to be released or deferred and while the extender sends, so that an
+    // extension read before a message left can never reach SQS after its release or deferral
+    private final Object visibilityLock = new Object();
+
+    private volatile boolean running;
+    private Semaphore idleWorkers;
+    private ExecutorService workers;
+    private ScheduledExecutorService visibilityExtender;
+    private Thread poller;
+
+    public SqsMessageConsumer(final SqsClient sqsClient, final FraudDetectionService fraudDetectionService) {
+        this.sqsClient = sqsClient;
+        this.fraudDetectionService = fraudDetectionService;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        idleWorkers = new Semaphore(concurrency);
+        workers = Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory("sqs-worker-"));
+
+        // Extend well before the timeout runs out, so a slow message is never handed to another consumer
+        long extendEverySeconds = Math.max(1, visibilityTimeoutSeconds / 3);
+        visibilityExtender = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sqs-visibility-"));
+        visibilityExtender.scheduleWithFixedDelay(this::extendVisibility, extendEverySeconds, extendEverySeconds, TimeUnit.SECONDS);
+
+        running = true;
+        poller = new Thread(this::pollLoop, "sqs-poller");
+        poller.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // No new messages are taken; a receive in progress is abandoned
+        poller.interrupt();
+        workers.shutdown();
+        boolean drained = false;
+        try {
+            drained = workers.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!drained) {
+            // An interrupted worker releases its message once it stops; one that never started has no worker to do so
+            List<Message> notStarted = workers.shutdownNow().stream()
+                    .map(task -> ((MessageTask) task).message)
+                    .toList();
+            release(notStarted);
+            try {
+                workers.awaitTermination(INTERRUPTED_WORKERS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Messages of workers that did not stop are neither extended nor released, so they expire
+        visibilityExtender.shutdownNow();
+        int stuck = inFlight.size();
+        if (stuck > 0) {
+            log.warn("{} messages are still being processed after the shutdown timeout of {} ms, leaving them to their visibility timeout",
+                    stuck, shutdownTimeoutMs);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop before the beans flushing results, which use {@code DEFAULT_PHASE - 1}.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                pollOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    // The receive was aborted by the shutdown
+                    return;
+                }
+                log.error("Polling {} failed", queueUrl, e);
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives one batch of messages and dispatches it to the workers. Blocks until at least one worker is idle
+     * and never requests more messages than there are idle workers.
+     * @throws InterruptedException if the poller is interrupted while waiting for an idle worker
+     */
+    private void pollOnce() throws InterruptedException {
+        idleWorkers.acquire();
+        int batchSize = 1;
+        // Only the poller acquires permits, so the ones reported available cannot be taken concurrently
+        int additional = Math.min(MAX_BATCH_SIZE - 1, idleWorkers.availablePermits());
+        if (additional > 0 && idleWorkers.tryAcquire(additional)) {
+            batchSize += additional;
+        }
+
+        List<Message> messages;
+        try {
+            ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
+                    .queueUrl(queueUrl)
+                    .maxNumberOfMessages(batchSize)
+                    .waitTimeSeconds(waitTimeSeconds)
+                    .visibilityTimeout(visibilityTimeoutSeconds)
+                    .build();
+            messages = sqsClient.receiveMessage(receiveRequest).messages();
+        } catch (RuntimeException e) {
+            idleWorkers.release(batchSize);
+            throw e;
+        }
+        idleWorkers.release(batchSize - messages.size());
+
+        for (Message message : messages) {
+            inFlight.put(message.messageId(), message);
+            try {
+                workers.execute(new MessageTask(message));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; hand the message straight back to the queue
+                release(List.of(message));
+                idleWorkers.release();
+            }
+        }
+    }
+
+    /**
+     * Processes one message on a worker; kept as a type so that the messages of tasks never started can be told
+     * from the tasks handed back on shutdown.
+     */
+    private final class MessageTask implements Runnable {
+
+        final Message message;
+
+        MessageTask(Message message) {
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            process(message);
+        }
+    }
+
+    private void process(Message message) {
+        try {
+            fraudDetectionService.receiveMessage(message.messageId(), message.body());
+            DeleteMessageRequest deleteRequest = DeleteMessageRequest.builder()
+                    .queueUrl(queueUrl)
+                    .receiptHandle(message.receiptHandle())
+                    .build();
+            sqsClient.deleteMessage(deleteRequest);
+        } catch (UserThrottledException e) {
+            // SQS accepts at most 12 hours
+            int delaySeconds = (int) Math.min(43_200, Math.max(1, e.retryAfter().toSeconds()));
+            log.debug("User {} is throttled, redelivering message {} in {}s", e.userId(), message.messageId(), delaySeconds);
+            deferRedelivery(message, delaySeconds);
+        } catch (WorkInProgressException e) {
+            // Expected when a message is delivered twice at once; the other consumer most likely finishes it
+            log.debug("{}, redelivering message {} in {}s", e.getMessage(), message.messageId(), inProgressDelaySeconds);
+            deferRedelivery(message, inProgressDelaySeconds);
+        } catch (Exception e) {
+            if (!running) {
+                // Most likely cut short by the shutdown, so it need not wait out its visibility timeout
+                log.info("Processing message {} did not finish before the shutdown, releasing it", message.messageId());
+                release(List.of(message));
+                return;
+            }
+            log.warn("Processing message {} failed, leaving it for redelivery", message.messageId(), e);
+        } finally {
+            inFlight.remove(message.messageId());
+            idleWorkers.release();
+        }
+    }
+
+    private void deferRedelivery(Message message, int delaySeconds) {
+        synchronized (visibilityLock) {
+            // No longer extended, which would undo the delay
+            inFlight.remove(message.messageId());
+            try {
+                sqsClient.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                        .queueUrl(queueUrl)
+                        .receiptHandle(message.receiptHandle())
+                        .visibilityTimeout(delaySeconds)
+                        .build());
+            } catch (RuntimeException e) {
+                log.warn("Deferring message {} failed, it is redelivered after its visibility timeout", message.messageId(), e);
+            }
+        }
+    }
+
+    private void extendVisibility() {
+        synchronized (visibilityLock) {
+            changeVisibility(new ArrayList<>(inFlight.values()), visibilityTimeoutSeconds);
+        }
+    }
+
+    /**
+     * Make messages visible to consumers again immediately.
+     */
+    private void release(List<Message> messages) {
+        synchronized (visibilityLock) {
+            messages.forEach(message -> inFlight.remove(message.messageId()));
+            changeVisibility(messages, 0);
+        }
+    }
+
+    private void changeVisibility(List<Message> messages, int timeoutSeconds) {
+        for (int from = 0; from < messages.size(); from += MAX_BATCH_SIZE) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < Math.min(from + MAX_BATCH_SIZE, messages.size()); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(messages.get(i).receiptHandle())
+                        .visibilityTimeout(timeoutSeconds)
+                        .build());
+            }
+            try {
+                sqsClient.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                        .queueUrl(queueUrl)
+                        .entries(entries)
+                        .build());
+            } catch (RuntimeException e) {
+                log.warn("Changing visibility of {} messages to {}s failed", entries.size(), timeoutSeconds, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.mycompany.frauddetection.service;
+
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes fraud detection results to the result queue with SendMessageBatch. Results are collected until
+ * 10 are pending or the oldest one has waited for the flush deadline, whichever comes first. Entries that
+ * fail inside a batch are retried on their own, with backoff; on shutdown everything still pending is flushed.
+ */
+@Service
+public class SqsResultPublisher implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SqsResultPublisher.class);
+
+    // Limits of a single SendMessageBatch call
+    private static final int MAX_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    // How often an idle flusher re-checks whether it should stop
+    private static final long IDLE_POLL_MS = 100;
+
+    // Backoff before retrying a failed entry doubles per attempt up to this
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    @Value("${fraud.publisher.queue-url}")
+    private String queueUrl;
+
+    @Value("${fraud.publisher.max-wait-ms:5}")
+    private long maxWaitMs;
+
+    @Value("${fraud.publisher.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${fraud.publisher.capacity:10000}")
+    private int capacity;
+
+    @Value("${fraud.publisher.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private final SqsClient sqsClient;
+    private final PipelineMetrics pipelineMetrics;
+
+    // Failed entries waiting for their next attempt; only touched by the flusher thread
+    private final Queue<PendingResult> retries = new ArrayDeque<>();
+
+    private volatile boolean running;
+    private BlockingQueue<PendingResult> pending;
+    private Thread flusher;
+
+    public SqsResultPublisher(final SqsClient sqsClient, final PipelineMetrics pipelineMetrics) {
+        this.sqsClient = sqsClient;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Queue a result for publishing. Blocks while the publisher already holds {@code capacity} unsent results.
+     * If the publisher is not running the result is sent right away with a single SendMessage call.
+     * @param messageBody body of the result message
+     */
+    public void publish(String messageBody) {
+        int bytes = messageBody.getBytes(StandardCharsets.UTF_8).length;
+        pipelineMetrics.recordPayloadSize(PipelineMetrics.SQS_PUBLISH, bytes);
+        if (!running) {
+            sendMessage(messageBody);
+            return;
+        }
+        PendingResult result = new PendingResult(messageBody, bytes, 1, 0);
+        try {
+            pending.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing fraud detection result", e);
+        }
+        // The flusher may have stopped and drained the queue for the last time in between; whatever it did not
+        // take is sent here
+        if (!running && pending.remove(result)) {
+            sendMessage(messageBody);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        pending = new LinkedBlockingQueue<>(capacity);
+        running = true;
+        flusher = new Thread(this::flushLoop, "sqs-result-publisher");
+        flusher.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        // The flusher drains whatever is still pending before it exits
+        running = false;
+        try {
+            flusher.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("Result publisher did not flush {} pending results within {} ms",
+                    pending.size() + retries.size(), shutdownTimeoutMs);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the message consumer, so results of messages drained on shutdown are still published.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 1;
+    }
+
+    private void flushLoop() {
+        List<PendingResult> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !pending.isEmpty() || !retries.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<PendingResult> batch) throws InterruptedException {
+        int batchBytes = 0;
+        long now = System.nanoTime();
+        // Retries are queued in the order they failed, so their backoff mostly ends in that order as well
+        while (!retries.isEmpty() && retries.peek().retryAtNanos() - now <= 0 && batch.size() < MAX_BATCH_SIZE
+                && batchBytes + retries.peek().bytes() <= MAX_BATCH_BYTES) {
+            PendingResult retry = retries.poll();
+            batch.add(retry);
+            batchBytes += retry.bytes();
+        }
+        if (batch.isEmpty()) {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MS);
+            if (!retries.isEmpty()) {
+                waitNanos = Math.min(waitNanos, Math.max(0, retries.peek().retryAtNanos() - now));
+            }
+            PendingResult first = pending.poll(waitNanos, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                return;
+            }
+            batch.add(first);
+            batchBytes += first.bytes();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        while (batch.size() < MAX_BATCH_SIZE) {
+            PendingResult next = pending.peek();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    return;
+                }
+                next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                if (batchBytes + next.bytes() > MAX_BATCH_BYTES) {
+                    // Not failed, just too big for this batch, so it goes first in the next one
+                    retries.add(new PendingResult(next.messageBody(), next.bytes(), next.attempt(), System.nanoTime()));
+                    return;
+                }
+            } else {
+                if (batchBytes + next.bytes() > MAX_BATCH_BYTES) {
+                    return;
+                }
+                pending.poll();
+            }
+            batch.add(next);
+            batchBytes += next.bytes();
+        }
+    }
+
+    private void send(List<PendingResult> batch) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .messageBody(batch.get(i).messageBody())
+                    .build());
+        }
+        SendMessageBatchResponse response;
+        try {
+            response = pipelineMetrics.time(PipelineMetrics.SQS_PUBLISH,
+                    () -> sqsClient.sendMessageBatch(SendMessageBatchRequest.builder()
+                            .queueUrl(queueUrl)
+                            .entries(entries)
+                            .build()));
+        } catch (RuntimeException e) {
+            log.warn("Sending a batch of {} results failed", batch.size(), e);
+            batch.forEach(this::retry);
+            return;
+        }
+        for (BatchResultErrorEntry failed : response.failed()) {
+            PendingResult result = batch.get(Integer.parseInt(failed.id()));
+            if (Boolean.TRUE.equals(failed.senderFault())) {
+                pipelineMetrics.recordDropped(PipelineMetrics.SQS_PUBLISH);
+                log.error("Result rejected by SQS ({}: {}), dropping it", failed.code(), failed.message());
+            } else {
+                retry(result);
+            }
+        }
+    }
+
+    private void retry(PendingResult result) {
+        if (result.attempt() >= maxAttempts) {
+            pipelineMetrics.recordDropped(PipelineMetrics.SQS_PUBLISH);
+            log.error("Giving up on a result after {} attempts", result.attempt());
+            return;
+        }
+        // While SQS is failing, retrying every flush would only burn the attempts; give it room first
+        long backoffMs = Math.min(MAX_BACKOFF_MS, 25L << Math.min(result.attempt(), 10));
+        retries.add(new PendingResult(result.messageBody(), result.bytes(), result.attempt() + 1,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs)));
+    }
+
+    private void sendMessage(String messageBody) {
+        pipelineMetrics.record(PipelineMetrics.SQS_PUBLISH, () -> sqsClient.sendMessage(SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(messageBody)
+                .build()));
+    }
+
+    /**
+     * @param retryAtNanos {@link System#nanoTime()} from which a failed entry may be sent again
+     */
+    private record PendingResult(String messageBody, int bytes, int attempt, long retryAtNanos) {
+    }
+}
@@ -0,0 +1,22 @@
+package com.mycompany.frauddetection.service;
+
+/**
+ * Another consumer holds an unexpired claim on a message or one of its files; the message is to be retried once
+ * that consumer has had time to finish.
+ */
+public class WorkInProgressException extends RuntimeException {
+
+    private final String key;
+
+    public WorkInProgressException(String key) {
+        super(key + " is being processed by another consumer", null, false, false);
+        this.key = key;
+    }
+
+    /**
+     * @return idempotency key of the claimed work
+     */
+    public String key() {
+        return key;
+    }
+}
@@ -0,0 +1,71 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.io.ByteBufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBufferPoolTests {
+
+    private final ByteBufferPool byteBufferPool = new ByteBufferPool(false, 1 << 20, 1 << 24);
+
+    @Test
+    void testReadFullyWithKnownLength() throws IOException {
+        byte[] content = randomBytes(10_000);
+
+        ByteBuffer buffer = byteBufferPool.readFully(new ByteArrayInputStream(content), (long) content.length);
+
+        assertEquals(ByteBuffer.wrap(content), buffer);
+        assertEquals(16 * 1024, buffer.capacity());
+    }
+
+    @Test
+    void testReadFullyWithUnknownLengthGrowsTheBuffer() throws IOException {
+        byte[] content = randomBytes(200_000);
+
+        ByteBuffer buffer = byteBufferPool.readFully(new ByteArrayInputStream(content), null);
+
+        assertEquals(ByteBuffer.wrap(content), buffer);
+    }
+
+    @Test
+    void testReadFullyWithUnderstatedLength() throws IOException {
+        byte[] content = randomBytes(5_000);
+
+        ByteBuffer buffer = byteBufferPool.readFully(new ByteArrayInputStream(content), 100L);
+
+        assertEquals(ByteBuffer.wrap(content), buffer);
+    }
+
+    @Test
+    void testReleasedBuffersAreReused() {
+        ByteBuffer first = byteBufferPool.acquire(3_000);
+        byteBufferPool.release(first);
+
+        ByteBuffer second = byteBufferPool.acquire(4_000);
+
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(second.capacity(), second.limit());
+    }
+
+    @Test
+    void testOversizedBuffersAreNotPooled() {
+        ByteBuffer oversized = byteBufferPool.acquire((1 << 20) + 1);
+        byteBufferPool.release(oversized);
+
+        assertEquals((1 << 20) + 1, oversized.capacity());
+        assertNotSame(oversized, byteBufferPool.acquire((1 << 20) + 1));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.scan.ContentScanner;
+import com.mycompany.frauddetection.scan.KeywordAutomaton;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentScannerTests {
+
+    @TempDir
+    Path rulesDirectory;
+
+    @Test
+    void testOverlappingKeywordsAreFound() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("he", "she", "his", "hers"), false);
+
+        assertEquals("she", automaton.firstMatch(utf8("ushers")));
+        assertEquals("his", automaton.firstMatch(utf8("this")));
+        assertNull(automaton.firstMatch(utf8("hxsx")));
+    }
+
+    @Test
+    void testScanLeavesBufferPositionUnchanged() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("fraud"), false);
+        ByteBuffer content = utf8("xx fraud xx");
+        content.position(1);
+
+        assertEquals("fraud", automaton.firstMatch(content));
+        assertEquals(1, content.position());
+    }
+
+    @Test
+    void testCaseInsensitiveMatchingIncludingNonAsciiKeywords() {
+        KeywordAutomaton caseSensitive = KeywordAutomaton.compile(List.of("fraud", "betrüger"), false);
+        KeywordAutomaton caseInsensitive = KeywordAutomaton.compile(List.of("fraud", "betrüger"), true);
+
+        assertNull(caseSensitive.firstMatch(utf8("This is FRAUD")));
+        assertEquals("fraud", caseInsensitive.firstMatch(utf8("This is FrAuD")));
+        assertEquals("betrüger", caseInsensitive.firstMatch(utf8("EIN BETRÜGER")));
+        assertNull(caseInsensitive.firstMatch(utf8("betruger")));
+    }
+
+    @Test
+    void testThousandsOfKeywords() {
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            keywords.add("term-" + i + "-x");
+        }
+        KeywordAutomaton automaton = KeywordAutomaton.compile(keywords, false);
+
+        assertEquals(5_000, automaton.keywordCount());
+        assertEquals("term-4321-x", automaton.firstMatch(utf8("... term-4321-x ...")));
+        assertNull(automaton.firstMatch(utf8("term-4321-y")));
+    }
+
+    @Test
+    void testRegexRulesFromRulesFile() throws IOException {
+        Path rulesFile = rulesDirectory.resolve("content-rules.txt");
+        Files.writeString(rulesFile, "# card numbers\nregex:\\b\\d{4}-\\d{4}-\\d{4}-\\d{4}\\b\nscam\n");
+
+        ContentScanner contentScanner = new ContentScanner(List.of("fraud"), rulesFile.toString(), false);
+
+        assertEquals("fraud", contentScanner.firstMatch(utf8("fraud")));
+        assertEquals("scam", contentScanner.firstMatch(utf8("a scam")));
+        assertTrue(contentScanner.firstMatch(utf8("card 1234-5678-9012-3456")).startsWith("regex:"));
+        assertFalse(contentScanner.matches(utf8("card 1234-5678")));
+    }
+
+    @Test
+    void testRulesAreReloadedWhenTheFileChanges() throws IOException {
+        Path rulesFile = rulesDirectory.resolve("content-rules.txt");
+        Files.writeString(rulesFile, "scam\n");
+        ContentScanner contentScanner = new ContentScanner(List.of(), rulesFile.toString(), false);
+        assertFalse(contentScanner.matches(utf8("phishing")));
+
+        Files.writeString(rulesFile, "scam\nphishing\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.fromMillis(System.currentTimeMillis() + 1_000));
+        contentScanner.reloadIfChanged();
+        assertTrue(contentScanner.matches(utf8("phishing")));
+
+        // An invalid rule keeps the rules that were loaded before
+        Files.writeString(rulesFile, "regex:([unclosed\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.fromMillis(System.currentTimeMillis() + 2_000));
+        contentScanner.reloadIfChanged();
+        assertTrue(contentScanner.matches(utf8("phishing")));
+    }
+
+    private static ByteBuffer utf8(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,83 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.service.ContentVerdictCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentVerdictCacheTests {
+
+    @TempDir
+    Path diskDirectory;
+
+    @Test
+    void testHashIgnoresBufferKindAndPosition() {
+        byte[] contentBytes = "some content".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(contentBytes.length).put(contentBytes).flip();
+
+        String hash = ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes));
+
+        assertEquals(64, hash.length());
+        assertEquals(hash, ContentVerdictCache.hash(direct));
+        assertEquals(0, direct.position());
+        assertNotEquals(hash, ContentVerdictCache.hash(ByteBuffer.wrap("other content".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void testContentVerdictIsOnlyValidForItsRules() throws IOException {
+        ContentVerdictCache cache = new ContentVerdictCache(new SimpleMeterRegistry(), true, 100, Duration.ofHours(1), "");
+
+        cache.recordContentVerdict("hash", true, 42);
+        cache.recordAIVerdict("hash", false);
+
+        ContentVerdictCache.ContentVerdicts verdicts = cache.get("hash");
+        assertFalse(verdicts.aiFraud());
+        assertTrue(verdicts.contentFraud(42));
+        assertNull(verdicts.contentFraud(43));
+    }
+
+    @Test
+    void testDiskTierOutlivesTheInMemoryCache() throws IOException {
+        ContentVerdictCache cache = new ContentVerdictCache(new SimpleMeterRegistry(), true, 100, Duration.ofHours(1),
+                diskDirectory.toString());
+        cache.recordAIVerdict("abcdef", true);
+        cache.recordContentVerdict("abcdef", false, 7);
+
+        ContentVerdictCache restarted = new ContentVerdictCache(new SimpleMeterRegistry(), true, 100, Duration.ofHours(1),
+                diskDirectory.toString());
+        ContentVerdictCache.ContentVerdicts verdicts = restarted.get("abcdef");
+
+        assertTrue(verdicts.aiFraud());
+        assertFalse(verdicts.contentFraud(7));
+        assertNull(restarted.get("unknown"));
+    }
+
+    @Test
+    void testExpiredDiskEntriesAreSweptAndIgnored() throws IOException {
+        ContentVerdictCache cache = new ContentVerdictCache(new SimpleMeterRegistry(), true, 100, Duration.ofHours(1),
+                diskDirectory.toString());
+        cache.recordAIVerdict("abcdef", true);
+        Path file = diskDirectory.resolve("ab").resolve("abcdef");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis()));
+
+        ContentVerdictCache restarted = new ContentVerdictCache(new SimpleMeterRegistry(), true, 100, Duration.ofHours(1),
+                diskDirectory.toString());
+        assertNull(restarted.get("abcdef"));
+
+        restarted.sweepDisk();
+        try (Stream<Path> files = Files.walk(diskDirectory)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+}
@@ -1,47 +1,364 @@
 package com.mycompany.frauddetection;
 
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
 import com.mycompany.frauddetection.service.NoSQLDatabaseService;
 import com.mycompany.frauddetection.service.SQLDatabaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
 
 public class DatabaseServiceTests {
-    @InjectMocks
+
+    @Mock
+    private DynamoDbClient dynamoDbClient;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private NoSQLDatabaseService noSQLDatabaseService;
 
-    @InjectMocks
     private SQLDatabaseService sqlDatabaseService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        noSQLDatabaseService = new NoSQLDatabaseService();
-        sqlDatabaseService = new SQLDatabaseService();
+        meterRegistry = new SimpleMeterRegistry();
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+        noSQLDatabaseService = new NoSQLDatabaseService(dynamoDbClient, pipelineMetrics);
+        ReflectionTestUtils.setField(noSQLDatabaseService, "tableName", "test-table");
+        ReflectionTestUtils.setField(noSQLDatabaseService, "maxWaitMs", 200L);
+        ReflectionTestUtils.setField(noSQLDatabaseService, "maxAttempts", 3);
+        ReflectionTestUtils.setField(noSQLDatabaseService, "capacity", 100);
+        ReflectionTestUtils.setField(noSQLDatabaseService, "shutdownTimeoutMs", 5000L);
+        sqlDatabaseService = new SQLDatabaseService(jdbcTemplate, new TransactionTemplate(transactionManager),
+                pipelineMetrics);
+        ReflectionTestUtils.setField(sqlDatabaseService, "upsertStatement", "UPSERT");
+        ReflectionTestUtils.setField(sqlDatabaseService, "batchSize", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        noSQLDatabaseService.stop();
     }
 
     @Test
     void testUpdateContentMetadata() {
-        // Test data
-        String userId = "test-user";
-        byte[] content = "test-content".getBytes();
-        String contentType = "text/plain";
-        boolean aiFraudCheck = true;
-        boolean legacyFraudCheck = false;
-        boolean contentFraudCheck = true;
-        noSQLDatabaseService.updateContentMetadata(userId, content, contentType, aiFraudCheck, legacyFraudCheck, contentFraudCheck);
-        assertTrue(true);
+        // Without the writer running, the item is written right away
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 12L, "text/plain", true, false, true);
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient, times(1)).putItem(putCaptor.capture());
+        PutItemRequest request = putCaptor.getValue();
+        assertEquals("test-table", request.tableName());
+        assertEquals("test-user", request.item().get("userId").s());
+        assertEquals("abc123", request.item().get("contentHash").s());
+        assertEquals("12", request.item().get("contentLength").n());
+        assertEquals("text/plain", request.item().get("contentType").s());
+        assertTrue(request.item().get("aiFraudCheck").bool());
+        assertFalse(request.item().get("legacyFraudCheck").bool());
+        assertTrue(request.item().get("contentFraudCheck").bool());
+    }
+
+    @Test
+    void testSkippedChecksAreStoredAsNull() {
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 12L, "text/plain", null, true, false);
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient, times(1)).putItem(putCaptor.capture());
+        assertTrue(putCaptor.getValue().item().get("aiFraudCheck").nul());
+        assertTrue(putCaptor.getValue().item().get("legacyFraudCheck").bool());
+    }
+
+    @Test
+    void testMetadataIsWrittenInBatchesOfTwentyFive() {
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder().build());
+        noSQLDatabaseService.start();
+
+        for (int i = 0; i < 60; i++) {
+            noSQLDatabaseService.updateContentMetadata("user-" + i, "hash-" + i, 1L, "text/plain", false, false, false);
+        }
+        noSQLDatabaseService.stop();
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(3)).batchWriteItem(batchCaptor.capture());
+        List<Integer> batchSizes = batchCaptor.getAllValues().stream()
+                .map(batch -> batch.requestItems().get("test-table").size())
+                .toList();
+        assertEquals(List.of(25, 25, 10), batchSizes);
+        verify(dynamoDbClient, never()).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    void testUnprocessedItemsAreRetried() {
+        AtomicBoolean throttled = new AtomicBoolean();
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    BatchWriteItemRequest request = invocation.getArgument(0);
+                    List<WriteRequest> writes = request.requestItems().get("test-table");
+                    // Leave the first item unprocessed once, as a throttled table would
+                    if (throttled.compareAndSet(false, true)) {
+                        return BatchWriteItemResponse.builder()
+                                .unprocessedItems(Map.of("test-table", List.of(writes.get(0))))
+                                .build();
+                    }
+                    return BatchWriteItemResponse.builder().build();
+                });
+        noSQLDatabaseService.start();
+
+        noSQLDatabaseService.updateContentMetadata("user-1", "hash-1", 1L, "text/plain", false, false, false);
+        noSQLDatabaseService.updateContentMetadata("user-2", "hash-2", 1L, "text/plain", false, false, false);
+        noSQLDatabaseService.stop();
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchWriteItem(batchCaptor.capture());
+        List<WriteRequest> retried = batchCaptor.getAllValues().get(1).requestItems().get("test-table");
+        assertEquals(1, retried.size());
+        assertEquals("user-1", retried.get(0).putRequest().item().get("userId").s());
+    }
+
+    @Test
+    void testFreshItemsAreNotHeldBackByRetries() throws Exception {
+        CountDownLatch freshQueued = new CountDownLatch(1);
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    assertTrue(freshQueued.await(5, TimeUnit.SECONDS));
+                    BatchWriteItemRequest request = invocation.getArgument(0);
+                    // The table keeps throttling the first burst
+                    List<WriteRequest> throttled = request.requestItems().get("test-table").stream()
+                            .filter(write -> write.putRequest().item().get("userId").s().startsWith("throttled"))
+                            .toList();
+                    return BatchWriteItemResponse.builder()
+                            .unprocessedItems(Map.of("test-table", throttled))
+                            .build();
+                });
+        noSQLDatabaseService.start();
+
+        for (int i = 0; i < 25; i++) {
+            noSQLDatabaseService.updateContentMetadata("throttled-" + i, "hash", 1L, "text/plain", false, false, false);
+        }
+        for (int i = 0; i < 5; i++) {
+            noSQLDatabaseService.updateContentMetadata("fresh-" + i, "hash", 1L, "text/plain", false, false, false);
+        }
+        freshQueued.countDown();
+        noSQLDatabaseService.stop();
+
+        // Written in the batch right after the throttled one, not after the retries gave up
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, atLeast(3)).batchWriteItem(batchCaptor.capture());
+        Set<String> secondBatchUsers = batchCaptor.getAllValues().get(1).requestItems().get("test-table").stream()
+                .map(write -> write.putRequest().item().get("userId").s())
+                .collect(Collectors.toSet());
+        assertTrue(secondBatchUsers.containsAll(Set.of("fresh-0", "fresh-1", "fresh-2", "fresh-3", "fresh-4")));
+        verify(dynamoDbClient, times(25)).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    void testRetryDoesNotOverwriteANewerWrite() throws Exception {
+        CountDownLatch newerQueued = new CountDownLatch(1);
+        AtomicBoolean throttled = new AtomicBoolean();
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    assertTrue(newerQueued.await(5, TimeUnit.SECONDS));
+                    BatchWriteItemRequest request = invocation.getArgument(0);
+                    if (throttled.compareAndSet(false, true)) {
+                        return BatchWriteItemResponse.builder()
+                                .unprocessedItems(Map.of("test-table", request.requestItems().get("test-table")))
+                                .build();
+                    }
+                    return BatchWriteItemResponse.builder().build();
+                });
+        noSQLDatabaseService.start();
+
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 1L, "text/plain", false, false, false);
+        Thread.sleep(300);
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 1L, "text/plain", true, false, false);
+        newerQueued.countDown();
+        noSQLDatabaseService.stop();
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchWriteItem(batchCaptor.capture());
+        List<WriteRequest> writes = batchCaptor.getAllValues().get(1).requestItems().get("test-table");
+        assertEquals(1, writes.size());
+        assertTrue(writes.get(0).putRequest().item().get("aiFraudCheck").bool());
+        verify(dynamoDbClient, never()).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    void testItemsFailingEveryBatchAreWrittenOnTheirOwn() {
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenThrow(DynamoDbException.builder().message("throttled").build());
+        noSQLDatabaseService.start();
+
+        noSQLDatabaseService.updateContentMetadata("user-1", "hash-1", 1L, "text/plain", false, false, false);
+        noSQLDatabaseService.stop();
+
+        verify(dynamoDbClient, times(3)).batchWriteItem(any(BatchWriteItemRequest.class));
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient, times(1)).putItem(putCaptor.capture());
+        assertEquals("user-1", putCaptor.getValue().item().get("userId").s());
+        assertEquals(0.0, meterRegistry.counter("fraud.pipeline.dropped", "stage", "nosql_write").count());
+    }
+
+    @Test
+    void testItemsThatCannotBeWrittenAtAllAreCounted() {
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenThrow(DynamoDbException.builder().message("unavailable").build());
+        when(dynamoDbClient.putItem(any(PutItemRequest.class)))
+                .thenThrow(DynamoDbException.builder().message("unavailable").build());
+        noSQLDatabaseService.start();
+
+        noSQLDatabaseService.updateContentMetadata("user-1", "hash-1", 1L, "text/plain", false, false, false);
+        noSQLDatabaseService.stop();
+
+        assertEquals(1.0, meterRegistry.counter("fraud.pipeline.dropped", "stage", "nosql_write").count());
+    }
+
+    @Test
+    void testDuplicateItemsInABatchAreCoalesced() {
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder().build());
+        noSQLDatabaseService.start();
+
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 1L, "text/plain", false, false, false);
+        noSQLDatabaseService.updateContentMetadata("test-user", "abc123", 1L, "text/plain", true, false, false);
+        noSQLDatabaseService.stop();
+
+        ArgumentCaptor<BatchWriteItemRequest> batchCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(1)).batchWriteItem(batchCaptor.capture());
+        List<WriteRequest> writes = batchCaptor.getValue().requestItems().get("test-table");
+        assertEquals(1, writes.size());
+        // The latest verdict wins
+        assertTrue(writes.get(0).putRequest().item().get("aiFraudCheck").bool());
     }
 
     @Test
     void testUpdateUserFraudStatus() {
-        // Test data
-        String userId = "test-user";
-        boolean isFraud = true;
-        sqlDatabaseService.updateUserFraudStatus(userId, isFraud);
-        assertTrue(true);
+        sqlDatabaseService.updateUserFraudStatus("test-user", true);
+        verifyNoInteractions(jdbcTemplate);
+
+        sqlDatabaseService.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void testPendingStatusIsWrittenWhenStopped() {
+        sqlDatabaseService.start();
+        sqlDatabaseService.updateUserFraudStatus("test-user", true);
+
+        sqlDatabaseService.stop();
+
+        assertFalse(sqlDatabaseService.isRunning());
+        verify(jdbcTemplate, times(1)).batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testStatusChangesAreCoalescedPerUser() {
+        sqlDatabaseService.updateUserFraudStatus("user-1", true);
+        sqlDatabaseService.updateUserFraudStatus("user-1", true);
+        sqlDatabaseService.updateUserFraudStatus("user-2", false);
+        sqlDatabaseService.updateUserFraudStatus("user-2", true);
+
+        sqlDatabaseService.flush();
+        sqlDatabaseService.flush();
+
+        ArgumentCaptor<Collection<Map.Entry<String, Boolean>>> updatesCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(eq("UPSERT"), updatesCaptor.capture(), eq(100),
+                any(ParameterizedPreparedStatementSetter.class));
+        assertEquals(Map.of("user-1", true, "user-2", true), Map.ofEntries(updatesCaptor.getValue().toArray(Map.Entry[]::new)));
+    }
+
+    @Test
+    void testRejectedBatchIsWrittenRowByRowAndTheBadRowDropped() {
+        when(jdbcTemplate.batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any()))
+                .thenThrow(new DataIntegrityViolationException("value too long for user_id"));
+        when(jdbcTemplate.update("UPSERT", "bad-user", true))
+                .thenThrow(new DataIntegrityViolationException("value too long for user_id"));
+        when(jdbcTemplate.update("UPSERT", "good-user", true)).thenReturn(1);
+        sqlDatabaseService.updateUserFraudStatus("bad-user", true);
+        sqlDatabaseService.updateUserFraudStatus("good-user", true);
+
+        sqlDatabaseService.flush();
+        sqlDatabaseService.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any());
+        verify(jdbcTemplate).update("UPSERT", "bad-user", true);
+        verify(jdbcTemplate).update("UPSERT", "good-user", true);
+        assertEquals(1.0, meterRegistry.counter("fraud.pipeline.dropped", "stage", "sql_write").count());
+    }
+
+    @Test
+    void testStatusIsKeptWhileTheConnectionIsLost() {
+        when(jdbcTemplate.batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any()))
+                .thenThrow(new DataAccessResourceFailureException("An I/O error occurred while sending to the backend"))
+                .thenThrow(new DataIntegrityViolationException("value too long for user_id"))
+                .thenReturn(new int[][] {{1}});
+        when(jdbcTemplate.update("UPSERT", "test-user", true))
+                .thenThrow(new CannotGetJdbcConnectionException("Failed to obtain JDBC Connection"));
+        sqlDatabaseService.updateUserFraudStatus("test-user", true);
+
+        // Lost mid-flush, then lost again while writing the row on its own
+        sqlDatabaseService.flush();
+        sqlDatabaseService.flush();
+        sqlDatabaseService.flush();
+
+        verify(jdbcTemplate, times(3)).batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any());
+        verify(jdbcTemplate, times(1)).update("UPSERT", "test-user", true);
+        assertEquals(0.0, meterRegistry.counter("fraud.pipeline.dropped", "stage", "sql_write").count());
+    }
+
+    @Test
+    void testFailedFlushIsRetried() {
+        when(jdbcTemplate.batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any()))
+                .thenThrow(new TransientDataAccessResourceException("database unavailable"))
+                .thenReturn(new int[][] {{1}});
+        sqlDatabaseService.updateUserFraudStatus("test-user", true);
+
+        sqlDatabaseService.flush();
+        sqlDatabaseService.close();
+
+        verify(jdbcTemplate, times(2)).batchUpdate(eq("UPSERT"), anyCollection(), eq(100), any());
+        verify(transactionManager, times(1)).rollback(any());
     }
 }
@@ -0,0 +1,163 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.resilience.AdaptiveConcurrencyLimiter;
+import com.mycompany.frauddetection.resilience.CircuitBreaker;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import com.mycompany.frauddetection.resilience.DependencyUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyGuardTests {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void testCircuitBreakerOpensOnFailuresAndFailsFast() {
+        DependencyGuard guard = guard(new CircuitBreaker(4, 4, 0.5, Duration.ofMinutes(1), 1), 100);
+
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals("ok", guard.call(() -> "ok"));
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IOException.class, () -> guard.call(() -> {
+                throw new IOException("unavailable");
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, guard.state());
+        assertThrows(DependencyUnavailableException.class, () -> guard.call(() -> "not called"));
+        assertEquals(1.0, meterRegistry.counter("fraud.dependency.rejections", "dependency", "test", "reason", "open").count());
+        assertEquals(0.0, meterRegistry.get("fraud.dependency.in.flight").tag("dependency", "test").gauge().value());
+    }
+
+    @Test
+    void testCircuitBreakerClosesAfterSuccessfulProbes() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, Duration.ZERO, 2);
+        breaker.onResult(breaker.tryAcquire(), true);
+        breaker.onResult(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        // The open duration is over, so only the probes are let through
+        long firstProbe = breaker.tryAcquire();
+        long secondProbe = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.NOT_PERMITTED, firstProbe);
+        assertNotEquals(CircuitBreaker.NOT_PERMITTED, secondProbe);
+        assertEquals(CircuitBreaker.NOT_PERMITTED, breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        breaker.onResult(firstProbe, false);
+        breaker.onResult(secondProbe, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void testFailedProbeOpensTheCircuitBreakerAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 0.5, Duration.ZERO, 1);
+        breaker.onResult(breaker.tryAcquire(), true);
+
+        long probe = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.NOT_PERMITTED, probe);
+        breaker.onResult(probe, true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void testCallsPermittedBeforeTheBreakerOpenedDoNotCountAsProbes() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, Duration.ZERO, 1);
+        long slowSuccess = breaker.tryAcquire();
+        long slowFailure = breaker.tryAcquire();
+        breaker.onResult(breaker.tryAcquire(), true);
+        breaker.onResult(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        long probe = breaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        // Neither closes nor reopens the breaker; only the probe decides
+        breaker.onResult(slowSuccess, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.onResult(slowFailure, true);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        breaker.onResult(probe, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void testLimiterShrinksOnSlowCallsAndGrowsWhenUsed() {
+        long threshold = TimeUnit.MILLISECONDS.toNanos(100);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 20, Duration.ofNanos(threshold), 0.5);
+
+        assertTrue(limiter.tryAcquire());
+        limiter.release(threshold * 2, false);
+        assertEquals(5, limiter.limit());
+
+        // A second slow answer within the same interval is not counted again
+        assertTrue(limiter.tryAcquire());
+        limiter.release(threshold * 2, false);
+        assertEquals(5, limiter.limit());
+
+        // Fast calls while the limit is used raise it again, by about one per limit's worth of calls
+        for (int round = 0; round < 3; round++) {
+            int limit = limiter.limit();
+            for (int i = 0; i < limit; i++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            assertFalse(limiter.tryAcquire());
+            for (int i = 0; i < limit; i++) {
+                limiter.release(threshold / 2, false);
+            }
+        }
+        assertEquals(6, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void testLimiterDoesNotGrowWhileIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20, Duration.ofSeconds(1), 0.5);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(0, false);
+        }
+
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    void testAsyncCallsBeyondTheLimitAreRejected() {
+        DependencyGuard guard = guard(new CircuitBreaker(50, 20, 0.5, Duration.ofMinutes(1), 1), 1);
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+
+        assertSame(inFlight, guard.callAsync(() -> inFlight));
+        CompletableFuture<String> rejected = guard.callAsync(() -> CompletableFuture.completedFuture("not called"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(DependencyUnavailableException.class, e.getCause());
+        assertEquals(1.0, meterRegistry.counter("fraud.dependency.rejections", "dependency", "test", "reason", "limit").count());
+
+        inFlight.complete("done");
+        assertEquals(0.0, meterRegistry.get("fraud.dependency.in.flight").tag("dependency", "test").gauge().value());
+        assertEquals("ok", guard.callAsync(() -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    private DependencyGuard guard(CircuitBreaker breaker, int limit) {
+        return new DependencyGuard("test", breaker,
+                new AdaptiveConcurrencyLimiter(limit, limit, limit, Duration.ofMinutes(1), 0.5),
+                Duration.ofMinutes(1), meterRegistry);
+    }
+}
@@ -0,0 +1,107 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.io.FileEventParser;
+import com.mycompany.frauddetection.record.FileReference;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileEventParserTests {
+
+    @Test
+    void testEnvelopeInAnyFieldOrderWithExtraFields() {
+        String message = "{\"userId\":\"user-1\",\"meta\":{\"nested\":[1,2,{\"key\":\"ignored\"}]},\"key\":\"a/b.txt\",\"bucket\":\"bucket-1\"}";
+
+        assertEquals(List.of(new FileReference("bucket-1", "a/b.txt", "user-1")), FileEventParser.parse(message));
+    }
+
+    @Test
+    void testS3EventNotification() {
+        String message = """
+                {"Records":[
+                  {"eventVersion":"2.1","eventSource":"aws:s3","eventName":"ObjectCreated:Put",
+                   "userIdentity":{"principalId":"AWS:AIDAEXAMPLE"},
+                   "requestParameters":{"sourceIPAddress":"10.0.0.1"},
+                   "s3":{"s3SchemaVersion":"1.0","configurationId":"uploads",
+                         "bucket":{"name":"uploads","ownerIdentity":{"principalId":"OWNER"},"arn":"arn:aws:s3:::uploads"},
+                         "object":{"key":"incoming/my+report%281%29.pdf","size":1024,"eTag":"abc"}}},
+                  {"eventName":"ObjectRemoved:Delete",
+                   "s3":{"bucket":{"name":"uploads"},"object":{"key":"gone.txt"}}},
+                  {"eventName":"ObjectCreated:CompleteMultipartUpload","userIdentity":{"principalId":"AWS:OTHER"},
+                   "s3":{"bucket":{"name":"uploads"},"object":{"key":"big.bin"}}}
+                ]}""";
+
+        assertEquals(List.of(
+                new FileReference("uploads", "incoming/my report(1).pdf", "AWS:AIDAEXAMPLE", null, false),
+                new FileReference("uploads", "big.bin", "AWS:OTHER", null, false)), FileEventParser.parse(message));
+    }
+
+    @Test
+    void testUserIsTakenFromTheObjectKeyWhenConfigured() {
+        String message = """
+                {"Records":[
+                  {"eventName":"ObjectCreated:Put","userIdentity":{"principalId":"AWS:SHARED-ROLE"},
+                   "s3":{"bucket":{"name":"uploads"},"object":{"key":"incoming/user-7/report.pdf"}}},
+                  {"eventName":"ObjectCreated:Put","userIdentity":{"principalId":"AWS:SHARED-ROLE"},
+                   "s3":{"bucket":{"name":"uploads"},"object":{"key":"stray.pdf"}}}
+                ]}""";
+
+        // A key without the segment falls back to the principal, which is not tracked as a user
+        assertEquals(List.of(
+                new FileReference("uploads", "incoming/user-7/report.pdf", "user-7"),
+                new FileReference("uploads", "stray.pdf", "AWS:SHARED-ROLE", null, false)), FileEventParser.parse(message, 1));
+        // The segment is enough, no principal needed
+        assertEquals(List.of(new FileReference("uploads", "incoming/user-7/report.pdf", "user-7")), FileEventParser.parse("""
+                {"Records":[{"eventName":"ObjectCreated:Put","s3":{"bucket":{"name":"uploads"},
+                 "object":{"key":"incoming/user-7/report.pdf"}}}]}""", 1));
+    }
+
+    @Test
+    void testFileVersionIsReadFromTheMessage() {
+        String message = """
+                {"Records":[
+                  {"eventName":"ObjectCreated:Put","userIdentity":{"principalId":"u"},"s3":{"bucket":{"name":"versioned"},
+                   "object":{"key":"a.txt","eTag":"e1","versionId":"v1","sequencer":"0A"}}},
+                  {"eventName":"ObjectCreated:Put","userIdentity":{"principalId":"u"},"s3":{"bucket":{"name":"plain"},
+                   "object":{"sequencer":"0B","eTag":"e2","key":"b.txt"}}}
+                ]}""";
+
+        assertEquals(List.of(
+                new FileReference("versioned", "a.txt", "u", "v1", false),
+                new FileReference("plain", "b.txt", "u", "e2@0B", false)), FileEventParser.parse(message));
+        // A bare ETag does not tell a re-upload of the same bytes from a duplicate, so it is no version
+        assertEquals(List.of(new FileReference("bucket-1", "a.txt", "user-1")),
+                FileEventParser.parse("{\"bucket\":\"bucket-1\",\"key\":\"a.txt\",\"userId\":\"user-1\",\"eTag\":\"etag-1\"}"));
+    }
+
+    @Test
+    void testS3TestEventAnnouncesNoFiles() {
+        String message = "{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\",\"Time\":\"2024-01-01T00:00:00.000Z\",\"Bucket\":\"uploads\"}";
+
+        assertEquals(List.of(), FileEventParser.parse(message));
+    }
+
+    @Test
+    void testS3EventRecordWithoutUserIdentityIsRejected() {
+        // Nobody to check the upload against, and no user to count it for
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("""
+                {"Records":[{"eventName":"ObjectCreated:Put","s3":{"bucket":{"name":"b"},"object":{"key":"k"}}}]}"""));
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("""
+                {"Records":[{"eventName":"ObjectCreated:Put","userIdentity":{"principalId":" "},
+                 "s3":{"bucket":{"name":"b"},"object":{"key":"k"}}}]}"""));
+        // Events that are skipped anyway need none
+        assertEquals(List.of(), FileEventParser.parse("""
+                {"Records":[{"eventName":"ObjectRemoved:Delete","s3":{"bucket":{"name":"b"},"object":{"key":"k"}}}]}"""));
+    }
+
+    @Test
+    void testInvalidMessagesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("[]"));
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("{\"bucket\":\"b\",\"key\":\"k\"}"));
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("{\"bucket\":\"b\",\"key\""));
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("{\"bucket\":{\"name\":\"b\"},\"key\":\"k\",\"userId\":\"u\"}"));
+        assertThrows(IllegalArgumentException.class, () -> FileEventParser.parse("{\"Records\":[{\"s3\":{\"bucket\":{\"name\":\"b\"}}}]}"));
+    }
+}
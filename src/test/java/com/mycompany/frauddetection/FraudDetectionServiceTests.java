@@ -1,33 +1,74 @@
 package com.mycompany.frauddetection;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.frauddetection.io.ByteBufferPool;
+import com.mycompany.frauddetection.io.InferencePayloads;
+import com.mycompany.frauddetection.io.SpillFileStore;
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
 import com.mycompany.frauddetection.record.FileContent;
+import com.mycompany.frauddetection.record.FileReference;
+import com.mycompany.frauddetection.resilience.AdaptiveConcurrencyLimiter;
+import com.mycompany.frauddetection.resilience.CircuitBreaker;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import com.mycompany.frauddetection.risk.UserRiskStore;
+import com.mycompany.frauddetection.risk.UserThrottledException;
+import com.mycompany.frauddetection.scan.ContentScanner;
+import com.mycompany.frauddetection.service.ContentVerdictCache;
 import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import com.mycompany.frauddetection.service.IdempotencyStore;
 import com.mycompany.frauddetection.service.LegacySystemService;
 import com.mycompany.frauddetection.service.NoSQLDatabaseService;
 import com.mycompany.frauddetection.service.SQLDatabaseService;
+import com.mycompany.frauddetection.service.SageMakerInferenceBatcher;
+import com.mycompany.frauddetection.service.SqsResultPublisher;
+import com.mycompany.frauddetection.service.WorkInProgressException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeAsyncClient;
 import software.amazon.awssdk.services.sagemakerruntime.SageMakerRuntimeClient;
 import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointRequest;
 import software.amazon.awssdk.services.sagemakerruntime.model.InvokeEndpointResponse;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -41,11 +82,14 @@ class FraudDetectionServiceTests {
     private S3Client s3Client;
 
     @Mock
-    private SqsClient sqsClient;
+    private SqsResultPublisher sqsResultPublisher;
 
     @Mock
     private SageMakerRuntimeClient sageMakerRuntimeClient;
 
+    @Mock
+    private SageMakerRuntimeAsyncClient sageMakerRuntimeAsyncClient;
+
     @Mock
     private LegacySystemService legacySystemService;
 
@@ -55,20 +99,51 @@ class FraudDetectionServiceTests {
     @Mock
     private SQLDatabaseService sqlDatabaseService;
 
+    @Mock
+    private DynamoDbClient dynamoDbClient;
+
     InvokeEndpointResponse invokeResponse;
 
+    private ExecutorService fraudCheckExecutor;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @TempDir
+    Path spillDirectory;
+
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
+        fraudCheckExecutor = Executors.newCachedThreadPool();
+        meterRegistry = new SimpleMeterRegistry();
         fraudDetectionService = new FraudDetectionService();
         ReflectionTestUtils.setField(fraudDetectionService, "s3Client", s3Client);
-        ReflectionTestUtils.setField(fraudDetectionService, "sqsClient", sqsClient);
+        ReflectionTestUtils.setField(fraudDetectionService, "sqsResultPublisher", sqsResultPublisher);
+        ReflectionTestUtils.setField(fraudDetectionService, "fraudVerdictEncoder", new FraudVerdictEncoder(FraudVerdictEncoder.Format.JSON));
         ReflectionTestUtils.setField(fraudDetectionService, "sageMakerRuntimeClient", sageMakerRuntimeClient);
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerRuntimeAsyncClient", sageMakerRuntimeAsyncClient);
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerInferenceBatcher", new SageMakerInferenceBatcher(
+                sageMakerRuntimeAsyncClient, "test-endpoint", false, 16, 5_242_880, Duration.ofMillis(10)));
         ReflectionTestUtils.setField(fraudDetectionService, "legacySystemService", legacySystemService);
         ReflectionTestUtils.setField(fraudDetectionService, "noSQLDatabaseService", noSQLDatabaseService);
         ReflectionTestUtils.setField(fraudDetectionService, "sqlDatabaseService", sqlDatabaseService);
         ReflectionTestUtils.setField(fraudDetectionService, "fraudDetectionEndpoint", "test-endpoint");
-        ReflectionTestUtils.setField(fraudDetectionService, "sqsQueueUrl", "test-queue-url");
+        ReflectionTestUtils.setField(fraudDetectionService, "byteBufferPool", new ByteBufferPool(false, 1 << 20, 1 << 24));
+        ReflectionTestUtils.setField(fraudDetectionService, "spillFileStore", new SpillFileStore(spillDirectory, 1024));
+        ReflectionTestUtils.setField(fraudDetectionService, "maxAIInputBytes", InferencePayloads.MAX_INPUT_BYTES);
+        ReflectionTestUtils.setField(fraudDetectionService, "contentScanner", new ContentScanner(List.of("fraud", "illegal"), "", false));
+        ReflectionTestUtils.setField(fraudDetectionService, "contentVerdictCache",
+                new ContentVerdictCache(meterRegistry, true, 1000, Duration.ofHours(1), ""));
+        ReflectionTestUtils.setField(fraudDetectionService, "fraudCheckExecutor", fraudCheckExecutor);
+        ReflectionTestUtils.setField(fraudDetectionService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(fraudDetectionService, "pipelineMetrics", new PipelineMetrics(meterRegistry));
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerGuard", sageMakerGuard(
+                new CircuitBreaker(50, 20, 0.5, Duration.ofSeconds(10), 5)));
+        ReflectionTestUtils.setField(fraudDetectionService, "idempotencyStore", new IdempotencyStore(dynamoDbClient,
+                meterRegistry, true, "processed-messages", 1000, Duration.ofHours(24), Duration.ofMinutes(5)));
+        ReflectionTestUtils.setField(fraudDetectionService, "userRiskStore", new UserRiskStore(meterRegistry, true,
+                4, 1000, Duration.ofMinutes(1), 100, Duration.ofMinutes(10)));
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 1000L);
 
         invokeResponse = mock(InvokeEndpointResponse.class);
         SdkHttpResponse sdkHttpResponse = mock(SdkHttpResponse.class);
@@ -78,6 +153,11 @@ class FraudDetectionServiceTests {
         when(invokeResponse.body()).thenReturn(sdkBytes);
     }
 
+    @AfterEach
+    void tearDown() {
+        fraudCheckExecutor.shutdownNow();
+    }
+
     @Test
     void testGetFileFromS3WithContentType() throws IOException {
         // Mock S3 client behavior
@@ -102,8 +182,265 @@ class FraudDetectionServiceTests {
             // Verify the results
             assertNotNull(result);
             assertEquals(contentType, result.contentType());
-            assertArrayEquals(contentBytes, result.fileContent());
+            assertEquals(ByteBuffer.wrap(contentBytes), result.asByteBuffer());
+        }
+    }
+
+    @Test
+    void testGetFileFromS3WithContentType_SpillsLargeObjectsToDisk() throws IOException {
+        // Test data larger than the 1 KB spill threshold
+        String contentType = "application/octet-stream";
+        byte[] contentBytes = "fraud ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        GetObjectResponse getObjectResponse = GetObjectResponse.builder()
+                .contentType(contentType)
+                .contentLength((long) contentBytes.length)
+                .build();
+        when(s3Client.getObject(any(GetObjectRequest.class)))
+                .thenReturn(new ResponseInputStream<>(getObjectResponse, new ByteArrayInputStream(contentBytes)));
+
+        // Call the method being tested
+        FileContent result = fraudDetectionService.getFileFromS3WithContentType("test-bucket", "large-file.bin");
+
+        // The content is memory-mapped from a temp file, which is deleted once the content is released
+        assertTrue(result.asByteBuffer().isDirect());
+        assertEquals(ByteBuffer.wrap(contentBytes), result.asByteBuffer());
+        assertTrue(fraudDetectionService.checkContentFraud(result.asByteBuffer(), contentType));
+        try (var spillFiles = Files.list(spillDirectory)) {
+            assertEquals(1, spillFiles.count());
+        }
+        result.close();
+        try (var spillFiles = Files.list(spillDirectory)) {
+            assertEquals(0, spillFiles.count());
+        }
+    }
+
+    @Test
+    void testPerformAIFraudCheck_SendsAtMostMaxInputBytes() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "maxAIInputBytes", 3);
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.performAIFraudCheck("abcdef".getBytes(StandardCharsets.UTF_8), "text/plain");
+
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeClient).invokeEndpoint(requestCaptor.capture());
+        assertEquals("{\"input\":\"YWJj\"}", requestCaptor.getValue().body().asUtf8String());
+    }
+
+    @Test
+    void testPerformAIFraudCheck_RequestAtTheDefaultInputLimitFitsTheEndpoint() throws Exception {
+        byte[] contentBytes = new byte[5 * 1024 * 1024];
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.performAIFraudCheck(contentBytes, "application/octet-stream");
+
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeClient).invokeEndpoint(requestCaptor.capture());
+        assertTrue(requestCaptor.getValue().body().asByteBuffer().remaining() <= InferencePayloads.MAX_REQUEST_BYTES);
+        // The same input as the only instance of a batch still fits
+        ByteBuffer input = ByteBuffer.wrap(contentBytes, 0, InferencePayloads.MAX_INPUT_BYTES);
+        assertEquals(InferencePayloads.MAX_REQUEST_BYTES,
+                InferencePayloads.base64JsonBatch(List.of(input)).asByteBuffer().remaining());
+        // A limit that does not fit is refused at startup
+        fraudDetectionService.validateAIInputLimit();
+        ReflectionTestUtils.setField(fraudDetectionService, "maxAIInputBytes", 4_718_592);
+        assertThrows(IllegalStateException.class, () -> fraudDetectionService.validateAIInputLimit());
+        assertThrows(IllegalArgumentException.class, () -> new SageMakerInferenceBatcher(sageMakerRuntimeAsyncClient,
+                "test-endpoint", true, 16, InferencePayloads.MAX_REQUEST_BYTES, Duration.ofMillis(10)));
+    }
+
+    @Test
+    void testPerformAIFraudCheck_EncodesOffHeapContent() throws Exception {
+        byte[] contentBytes = new byte[100_001];
+        new Random(7).nextBytes(contentBytes);
+        ByteBuffer content = ByteBuffer.allocateDirect(contentBytes.length).put(contentBytes).flip();
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.performAIFraudCheck(content, "application/octet-stream");
+
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeClient).invokeEndpoint(requestCaptor.capture());
+        String expected = "{\"input\":\"" + Base64.getEncoder().encodeToString(contentBytes) + "\"}";
+        assertEquals(expected, requestCaptor.getValue().body().asUtf8String());
+        assertEquals(0, content.position());
+    }
+
+    @Test
+    void testPerformAIFraudCheckAsync_SendsRawBytes() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "payloadFormat", FraudDetectionService.PayloadFormat.RAW);
+        byte[] contentBytes = "raw-content".getBytes(StandardCharsets.UTF_8);
+        when(invokeResponse.body().asUtf8String()).thenReturn("fraud detected");
+        when(sageMakerRuntimeAsyncClient.invokeEndpoint(any(InvokeEndpointRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(invokeResponse));
+
+        try (FileContent fileContent = new FileContent(contentBytes, "text/plain")) {
+            assertTrue(fraudDetectionService.performAIFraudCheckAsync(fileContent).get());
+        }
+
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeAsyncClient).invokeEndpoint(requestCaptor.capture());
+        assertEquals("text/plain", requestCaptor.getValue().contentType());
+        assertArrayEquals(contentBytes, requestCaptor.getValue().body().asByteArray());
+    }
+
+    @Test
+    void testPerformAIFraudCheckAsync_RequestDoesNotHoldTheFetchedContent() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "payloadFormat", FraudDetectionService.PayloadFormat.RAW);
+        ByteBufferPool byteBufferPool = new ByteBufferPool(false, 1 << 20, 1 << 24);
+        ReflectionTestUtils.setField(fraudDetectionService, "byteBufferPool", byteBufferPool);
+        byte[] contentBytes = "fetched-content".getBytes(StandardCharsets.UTF_8);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().contentType("text/plain").contentLength((long) contentBytes.length).build(),
+                new ByteArrayInputStream(contentBytes)));
+        // Still in flight when the content is released
+        when(sageMakerRuntimeAsyncClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(new CompletableFuture<>());
+
+        try (FileContent fileContent = fraudDetectionService.getFileFromS3WithContentType("test-bucket", "test-file.txt")) {
+            fraudDetectionService.performAIFraudCheckAsync(fileContent);
+        }
+        // The pooled buffer is reused and overwritten by the next file
+        ByteBuffer reused = byteBufferPool.acquire(contentBytes.length);
+        while (reused.hasRemaining()) {
+            reused.put((byte) 'x');
+        }
+
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeAsyncClient).invokeEndpoint(requestCaptor.capture());
+        assertArrayEquals(contentBytes, requestCaptor.getValue().body().asByteArray());
+    }
+
+    @Test
+    void testPerformAIFraudCheckAsync_ConcurrentChecksShareOneBatchRequest() throws Exception {
+        SageMakerInferenceBatcher batcher = new SageMakerInferenceBatcher(sageMakerRuntimeAsyncClient, "test-endpoint",
+                true, 2, 5_242_880, Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerInferenceBatcher", batcher);
+        InvokeEndpointResponse batchResponse = (InvokeEndpointResponse) InvokeEndpointResponse.builder()
+                .body(SdkBytes.fromUtf8String("{\"predictions\":[{\"label\":\"fraud\"},{\"label\":\"clean\"}]}"))
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+        when(sageMakerRuntimeAsyncClient.invokeEndpoint(any(InvokeEndpointRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(batchResponse));
+        int[] released = {0};
+        FileContent first = new FileContent(ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)), "text/plain", () -> released[0]++);
+        FileContent second = new FileContent(ByteBuffer.wrap("de".getBytes(StandardCharsets.UTF_8)), "text/plain", () -> released[0]++);
+
+        CompletableFuture<Boolean> firstVerdict = fraudDetectionService.performAIFraudCheckAsync(first);
+        CompletableFuture<Boolean> secondVerdict = fraudDetectionService.performAIFraudCheckAsync(second);
+        first.close();
+        second.close();
+
+        assertTrue(firstVerdict.get(1, TimeUnit.SECONDS));
+        assertFalse(secondVerdict.get(1, TimeUnit.SECONDS));
+        ArgumentCaptor<InvokeEndpointRequest> requestCaptor = ArgumentCaptor.forClass(InvokeEndpointRequest.class);
+        verify(sageMakerRuntimeAsyncClient, times(1)).invokeEndpoint(requestCaptor.capture());
+        assertEquals("{\"instances\":[{\"input\":\"YWJj\"},{\"input\":\"ZGU=\"}]}", requestCaptor.getValue().body().asUtf8String());
+        assertEquals(2, released[0]);
+        batcher.close();
+    }
+
+    @Test
+    void testPerformAIFraudCheckAsync_FailedBatchFailsEveryInput() {
+        SageMakerInferenceBatcher batcher = new SageMakerInferenceBatcher(sageMakerRuntimeAsyncClient, "test-endpoint",
+                true, 2, 5_242_880, Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerInferenceBatcher", batcher);
+        InvokeEndpointResponse errorResponse = (InvokeEndpointResponse) InvokeEndpointResponse.builder()
+                .body(SdkBytes.fromUtf8String("{\"message\":\"model error\"}"))
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(500).build())
+                .build();
+        when(sageMakerRuntimeAsyncClient.invokeEndpoint(any(InvokeEndpointRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(errorResponse));
+        FileContent first = new FileContent(ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)), "text/plain", () -> { });
+        FileContent second = new FileContent(ByteBuffer.wrap("de".getBytes(StandardCharsets.UTF_8)), "text/plain", () -> { });
+
+        CompletableFuture<Boolean> firstVerdict = fraudDetectionService.performAIFraudCheckAsync(first);
+        CompletableFuture<Boolean> secondVerdict = fraudDetectionService.performAIFraudCheckAsync(second);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> firstVerdict.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertThrows(ExecutionException.class, () -> secondVerdict.get(1, TimeUnit.SECONDS));
+        batcher.close();
+    }
+
+    @Test
+    void testDetectFraud_RepeatedContentSkipsAIAndContentChecks() throws Exception {
+        byte[] contentBytes = "same fraudulent upload".getBytes(StandardCharsets.UTF_8);
+        when(invokeResponse.body().asUtf8String()).thenReturn("fraud detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "first-user");
+        fraudDetectionService.detectFraud(contentBytes.clone(), "text/plain", "second-user");
+
+        // The second upload is answered from the verdicts of the first one
+        verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq("second-user"), anyString(), anyLong(), eq("text/plain"), eq(true), eq(false), eq(true));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "cached").count());
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "content", "outcome", "cached").count());
+    }
+
+    @Test
+    void testDetectFraud_TimedOutAIVerdictIsNotCached() throws Exception {
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class)))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(5_000);
+                    return invokeResponse;
+                })
+                .thenReturn(invokeResponse);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        verify(sageMakerRuntimeClient, times(2)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "content", "outcome", "cached").count());
+    }
+
+    @Test
+    void testDetectFraud_AsyncInferenceKeepsContentUntilTheRequestCompletes() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "asyncInference", true);
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+        CompletableFuture<InvokeEndpointResponse> pendingResponse = new CompletableFuture<>();
+        when(sageMakerRuntimeAsyncClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(pendingResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(false);
+        int[] released = {0};
+        FileContent fileContent = new FileContent(ByteBuffer.wrap("test-content".getBytes(StandardCharsets.UTF_8)),
+                "text/plain", () -> released[0]++);
+
+        fraudDetectionService.detectFraud(fileContent, "test-user");
+        fileContent.close();
+
+        // The AI check timed out, but the request still reads the content until it completes
+        verify(sageMakerRuntimeClient, never()).invokeEndpoint(any(InvokeEndpointRequest.class));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "timeout").count());
+        assertTrue(pendingResponse.isCancelled());
+        assertEquals(1, released[0]);
+    }
+
+    @Test
+    void testDetectFraud_OpenCircuitBreakerAnswersWithTheFallbackVerdict() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "asyncInference", false);
+        ReflectionTestUtils.setField(fraudDetectionService, "aiFallbackVerdict", true);
+        ReflectionTestUtils.setField(fraudDetectionService, "sageMakerGuard", sageMakerGuard(
+                new CircuitBreaker(2, 2, 0.5, Duration.ofMinutes(1), 1)));
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class)))
+                .thenThrow(SdkClientException.create("endpoint unavailable"));
+        when(legacySystemService.checkUserFraud(anyString())).thenReturn(false);
+
+        for (int i = 0; i < 2; i++) {
+            byte[] content = ("failing-content-" + i).getBytes(StandardCharsets.UTF_8);
+            assertThrows(SdkClientException.class, () -> fraudDetectionService.detectFraud(content, "text/plain", "test-user"));
         }
+        fraudDetectionService.detectFraud("shed-content".getBytes(StandardCharsets.UTF_8), "text/plain", "test-user");
+
+        // The open breaker keeps the endpoint from being called and the fallback verdict is used right away
+        verify(sageMakerRuntimeClient, times(2)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "rejected").count());
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq("test-user"), anyString(), anyLong(),
+                eq("text/plain"), eq(true), eq(false), eq(false));
     }
 
     @Test
@@ -138,9 +475,9 @@ class FraudDetectionServiceTests {
         // Verify interactions with dependencies
         verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
         verify(legacySystemService, times(1)).checkUserFraud(userId);
-        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(contentBytes), eq(contentType), eq(false), eq(false), eq(false));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(false), eq(false), eq(false));
         verify(sqlDatabaseService, times(0)).updateUserFraudStatus(anyString(), anyBoolean());
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
     }
 
     @Test
@@ -161,9 +498,9 @@ class FraudDetectionServiceTests {
         // Verify interactions with dependencies
         verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
         verify(legacySystemService, times(1)).checkUserFraud(userId);
-        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(contentBytes), eq(contentType), eq(true), eq(false), eq(false));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(true), eq(false), eq(false));
         verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq(userId), eq(true));
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
     }
 
     @Test
@@ -183,9 +520,9 @@ class FraudDetectionServiceTests {
         // Verify interactions with dependencies
         verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
         verify(legacySystemService, times(1)).checkUserFraud(userId);
-        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(contentBytes), eq(contentType), eq(true), eq(false), eq(false));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(true), eq(false), eq(false));
         verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq(userId), eq(true));
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
     }
 
     @Test
@@ -205,9 +542,213 @@ class FraudDetectionServiceTests {
         // Verify interactions with dependencies
         verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
         verify(legacySystemService, times(1)).checkUserFraud(userId);
-        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(contentBytes), eq(contentType), eq(true), eq(false), eq(true));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(true), eq(false), eq(true));
+        verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq(userId), eq(true));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
+    }
+
+    @Test
+    void testDetectFraud_TieredModeSkipsChecksOnceContentIsFlagged() throws Exception {
+        byte[] contentBytes = "fraudulent content".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "evaluationMode", FraudDetectionService.EvaluationMode.TIERED);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        // The content scan decides the verdict, so neither the legacy system nor SageMaker is called
+        verify(sageMakerRuntimeClient, never()).invokeEndpoint(any(InvokeEndpointRequest.class));
+        verify(legacySystemService, never()).checkUserFraud(anyString());
+        verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq("test-user"), eq(true));
+        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+        verify(sqsResultPublisher).publish(bodyCaptor.capture());
+        JsonNode body = new ObjectMapper().readTree(bodyCaptor.getValue());
+        assertTrue(body.get("fraud").asBoolean());
+        assertEquals("completed", body.at("/content/outcome").asText());
+        assertEquals("skipped", body.at("/legacy/outcome").asText());
+        assertEquals("skipped", body.at("/ai/outcome").asText());
+        assertFalse(body.has("legacyFraudCheck"));
+        assertFalse(body.has("aiFraudCheck"));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "skipped").count());
+    }
+
+    @Test
+    void testDetectFraud_TieredModeSkipsAIOnceLegacyFlags() throws Exception {
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "evaluationMode", FraudDetectionService.EvaluationMode.TIERED);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(true);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        verify(legacySystemService, times(1)).checkUserFraud("test-user");
+        verify(sageMakerRuntimeClient, never()).invokeEndpoint(any(InvokeEndpointRequest.class));
+        // SageMaker has no verdict, which is not the same as a clean one
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq("test-user"), anyString(), anyLong(),
+                eq("text/plain"), isNull(), eq(true), eq(false));
+        verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq("test-user"), eq(true));
+    }
+
+    @Test
+    void testDetectFraud_TieredModeRunsEveryCheckForCleanContent() throws Exception {
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "evaluationMode", FraudDetectionService.EvaluationMode.TIERED);
+        when(invokeResponse.body().asUtf8String()).thenReturn("fraud detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(false);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        verify(legacySystemService, times(1)).checkUserFraud("test-user");
+        verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq("test-user"), anyString(), anyLong(),
+                eq("text/plain"), eq(true), eq(false), eq(false));
+    }
+
+    @Test
+    void testDetectFraud_TieredModeSharesOneDeadlineAcrossTiers() throws Exception {
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "evaluationMode", FraudDetectionService.EvaluationMode.TIERED);
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+        when(legacySystemService.checkUserFraud("test-user")).thenAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return false;
+        });
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        // The legacy lookup used up the deadline, so SageMaker is not called and falls back at once
+        verify(sageMakerRuntimeClient, never()).invokeEndpoint(any(InvokeEndpointRequest.class));
+        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+        verify(sqsResultPublisher).publish(bodyCaptor.capture());
+        JsonNode body = new ObjectMapper().readTree(bodyCaptor.getValue());
+        assertEquals("timeout", body.at("/legacy/outcome").asText());
+        assertEquals("timeout", body.at("/ai/outcome").asText());
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "timeout").count());
+    }
+
+    @Test
+    void testDetectFraud_AuditModeCountsChecksTieredModeWouldSkip() throws Exception {
+        byte[] contentBytes = "fraudulent content".getBytes(StandardCharsets.UTF_8);
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(false);
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        // Every check still runs and is recorded
+        verify(legacySystemService, times(1)).checkUserFraud("test-user");
+        verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.skippable", "check", "legacy").count());
+        assertEquals(1.0, meterRegistry.counter("fraud.check.skippable", "check", "ai").count());
+    }
+
+    @Test
+    void testDetectFraud_UserFlaggedByTheLegacySystemSkipsRemoteCalls() throws Exception {
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(true);
+        fraudDetectionService.detectFraud("first upload".getBytes(StandardCharsets.UTF_8), "text/plain", "test-user");
+
+        fraudDetectionService.detectFraud("second upload".getBytes(StandardCharsets.UTF_8), "text/plain", "test-user");
+
+        // Only the first upload reached the legacy system and SageMaker
+        verify(legacySystemService, times(1)).checkUserFraud("test-user");
+        verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        verify(sqlDatabaseService, times(2)).updateUserFraudStatus(eq("test-user"), eq(true));
+        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+        verify(sqsResultPublisher, times(2)).publish(bodyCaptor.capture());
+        JsonNode body = new ObjectMapper().readTree(bodyCaptor.getAllValues().get(1));
+        assertTrue(body.get("fraud").asBoolean());
+        assertEquals("cached", body.at("/legacy/outcome").asText());
+        assertEquals("skipped", body.at("/ai/outcome").asText());
+        assertEquals("completed", body.at("/content/outcome").asText());
+    }
+
+    @Test
+    void testDetectFraud_HighVelocityUserIsThrottledBeforeAnyCheck() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "userRiskStore", new UserRiskStore(meterRegistry, true,
+                4, 1000, Duration.ofMinutes(1), 2, Duration.ofMinutes(10)));
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenReturn(false);
+
+        for (int i = 0; i < 2; i++) {
+            fraudDetectionService.detectFraud(("upload " + i).getBytes(StandardCharsets.UTF_8), "text/plain", "test-user");
+        }
+        assertThrows(UserThrottledException.class, () -> fraudDetectionService.detectFraud(
+                "upload 2".getBytes(StandardCharsets.UTF_8), "text/plain", "test-user"));
+
+        verify(legacySystemService, times(2)).checkUserFraud("test-user");
+        verify(sageMakerRuntimeClient, times(2)).invokeEndpoint(any(InvokeEndpointRequest.class));
+        verify(sqsResultPublisher, times(2)).publish(anyString());
+    }
+
+    @Test
+    void testDetectFraud_LegacyCheckTimesOut() throws Exception {
+        // Test data
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        String contentType = "text/plain";
+        String userId = "test-user";
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+        ReflectionTestUtils.setField(fraudDetectionService, "legacyFallbackVerdict", true);
+
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud(userId)).thenAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return false;
+        });
+
+        // Call the method being tested
+        long start = System.nanoTime();
+        fraudDetectionService.detectFraud(contentBytes, contentType, userId);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // The slow legacy check is abandoned at the deadline and replaced by its fallback verdict
+        assertTrue(elapsedMillis < 5_000);
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(false), eq(true), eq(false));
         verify(sqlDatabaseService, times(1)).updateUserFraudStatus(eq(userId), eq(true));
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "legacy", "outcome", "timeout").count());
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "completed").count());
+    }
+
+    @Test
+    void testDetectFraud_NonBlockingLegacyCheckTimesOut() throws Exception {
+        // Test data
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        String contentType = "text/plain";
+        String userId = "test-user";
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.isNonBlocking()).thenReturn(true);
+        when(legacySystemService.checkUserFraudAsync(userId)).thenReturn(Mono.never());
+
+        // Call the method being tested
+        fraudDetectionService.detectFraud(contentBytes, contentType, userId);
+
+        // The non-blocking lookup is used instead of the blocking one, and times out into its fallback verdict
+        verify(legacySystemService, times(0)).checkUserFraud(anyString());
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(false), eq(false), eq(false));
+        assertEquals(1.0, meterRegistry.counter("fraud.check.executions", "check", "legacy", "outcome", "timeout").count());
+    }
+
+    @Test
+    void testDetectFraud_CheckFailurePropagates() {
+        // Test data
+        byte[] contentBytes = "test-content".getBytes(StandardCharsets.UTF_8);
+        String contentType = "text/plain";
+        String userId = "test-user";
+
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenThrow(new IllegalStateException("endpoint down"));
+
+        // Call the method being tested
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> fraudDetectionService.detectFraud(contentBytes, contentType, userId));
+
+        // Verify nothing was persisted or published for the failed message
+        assertEquals("endpoint down", thrown.getMessage());
+        verify(noSQLDatabaseService, times(0)).updateContentMetadata(anyString(), anyString(), anyLong(), anyString(), anyBoolean(), anyBoolean(), anyBoolean());
+        verify(sqsResultPublisher, times(0)).publish(anyString());
     }
 
     @Test
@@ -276,15 +817,38 @@ class FraudDetectionServiceTests {
         boolean legacyFraud = false;
         boolean contentFraud = true;
 
-        // Mock SQS client behavior
-        SendMessageResponse response = mock(SendMessageResponse.class);
-        doReturn(response).when(sqsClient).sendMessage(any(SendMessageRequest.class));
-
         // Call the method being tested
         fraudDetectionService.sendFraudDetectionResultToSQS(userId, aiFraud, legacyFraud, contentFraud);
 
-        // Verify interaction with SQS client
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        // Verify the result was handed to the publisher
+        verify(sqsResultPublisher, times(1)).publish(anyString());
+    }
+
+    @Test
+    void testDetectFraud_PublishesPerCheckResultsAsJson() throws Exception {
+        byte[] contentBytes = "This content is fraudulent".getBytes(StandardCharsets.UTF_8);
+        ReflectionTestUtils.setField(fraudDetectionService, "checkTimeoutMs", 100L);
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("test-user")).thenAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return false;
+        });
+
+        fraudDetectionService.detectFraud(contentBytes, "text/plain", "test-user");
+
+        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+        verify(sqsResultPublisher).publish(bodyCaptor.capture());
+        JsonNode body = new ObjectMapper().readTree(bodyCaptor.getValue());
+        assertEquals("test-user", body.get("userId").asText());
+        assertTrue(body.get("fraud").asBoolean());
+        assertTrue(body.get("contentFraudCheck").asBoolean());
+        assertEquals("completed", body.at("/ai/outcome").asText());
+        assertEquals("timeout", body.at("/legacy/outcome").asText());
+        // Cut short at the verdict's deadline, which started a little before the check did
+        long legacyMicros = body.at("/legacy/durationMicros").asLong();
+        assertTrue(legacyMicros > 0 && legacyMicros < 5_000_000);
+        assertTrue(body.at("/content/fraud").asBoolean());
     }
 
     @Test
@@ -320,31 +884,184 @@ class FraudDetectionServiceTests {
         verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
         verify(sageMakerRuntimeClient, times(1)).invokeEndpoint(any(InvokeEndpointRequest.class));
         verify(legacySystemService, times(1)).checkUserFraud(userId);
-        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(contentBytes), eq(contentType), eq(true), eq(false), eq(false));
-        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        verify(noSQLDatabaseService, times(1)).updateContentMetadata(eq(userId), eq(ContentVerdictCache.hash(ByteBuffer.wrap(contentBytes))), eq((long) contentBytes.length), eq(contentType), eq(true), eq(false), eq(false));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
     }
 
     @Test
-    void testExtractBucketName() {
+    void testParseMessage() {
         String sqsMessage = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
-        String expectedBucketName = "my-bucket";
-        String actualBucketName = fraudDetectionService.extractBucketName(sqsMessage);
-        assertEquals(expectedBucketName, actualBucketName);
+        List<FileReference> files = fraudDetectionService.parseMessage(sqsMessage);
+        assertEquals(List.of(new FileReference("test-bucket", "test-file.txt", "test-user")), files);
     }
 
     @Test
-    void testExtractFileKey() {
-        String sqsMessage = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
-        String expectedFileKey = "myfile.txt";
-        String actualFileKey = fraudDetectionService.extractFileKey(sqsMessage);
-        assertEquals(expectedFileKey, actualFileKey);
+    void testReceiveMessage_S3EventWithSeveralRecords() throws Exception {
+        String message = "{\"Records\":["
+                + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"uploader\"},"
+                + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},\"object\":{\"key\":\"first.txt\"}}},"
+                + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"uploader\"},"
+                + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},\"object\":{\"key\":\"second.txt\"}}}]}";
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> new ResponseInputStream<>(
+                GetObjectResponse.builder().contentType("text/plain").contentLength(5L).build(),
+                new ByteArrayInputStream("clean".getBytes(StandardCharsets.UTF_8))));
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.receiveMessage(message);
+
+        ArgumentCaptor<GetObjectRequest> requestCaptor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3Client, times(2)).getObject(requestCaptor.capture());
+        assertEquals(List.of("first.txt", "second.txt"), requestCaptor.getAllValues().stream().map(GetObjectRequest::key).toList());
+        verify(legacySystemService, times(2)).checkUserFraud("uploader");
+        verify(sqsResultPublisher, times(2)).publish(anyString());
     }
 
     @Test
-    void testExtractUserId() {
-        String sqsMessage = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
-        String expectedUserId = "userId";
-        String actualUserId = fraudDetectionService.extractUserId(sqsMessage);
-        assertEquals(expectedUserId, actualUserId);
+    void testReceiveMessage_ThrottledUserDefersTheMessageBeforeAnyFileIsFetched() {
+        ReflectionTestUtils.setField(fraudDetectionService, "userRiskStore", new UserRiskStore(meterRegistry, true,
+                4, 1000, Duration.ofMinutes(1), 1, Duration.ofMinutes(10)));
+        ReflectionTestUtils.setField(fraudDetectionService, "userKeySegment", 1);
+        String message = "{\"Records\":["
+                + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"uploader\"},"
+                + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},\"object\":{\"key\":\"incoming/uploader/first.txt\",\"eTag\":\"e1\",\"sequencer\":\"0A\"}}},"
+                + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"uploader\"},"
+                + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},\"object\":{\"key\":\"incoming/uploader/second.txt\",\"eTag\":\"e2\",\"sequencer\":\"0B\"}}}]}";
+
+        assertThrows(UserThrottledException.class, () -> fraudDetectionService.receiveMessage("message-1", message));
+
+        // The first file is not checked now and again on redelivery
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+        verify(sqsResultPublisher, never()).publish(anyString());
+        ArgumentCaptor<DeleteItemRequest> deleteCaptor = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDbClient, times(3)).deleteItem(deleteCaptor.capture());
+        assertEquals(List.of("file:uploads/incoming/uploader/first.txt@e1@0A", "file:uploads/incoming/uploader/second.txt@e2@0B", "message:message-1"),
+                deleteCaptor.getAllValues().stream().map(request -> request.key().get("id").s()).sorted().toList());
+    }
+
+    @Test
+    void testReceiveMessage_UploadingPrincipalIsNeitherThrottledNorRememberedAsFraud() throws Exception {
+        ReflectionTestUtils.setField(fraudDetectionService, "userRiskStore", new UserRiskStore(meterRegistry, true,
+                4, 1000, Duration.ofMinutes(1), 1, Duration.ofMinutes(10)));
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> new ResponseInputStream<>(
+                GetObjectResponse.builder().contentType("text/plain").contentLength(5L).build(),
+                new ByteArrayInputStream("clean".getBytes(StandardCharsets.UTF_8))));
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+        when(legacySystemService.checkUserFraud("AWS:SHARED-ROLE")).thenReturn(true);
+
+        // Three uploads through one shared role, above the limit of one per window
+        for (String key : List.of("a.txt", "b.txt", "c.txt")) {
+            fraudDetectionService.receiveMessage("{\"Records\":["
+                    + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"AWS:SHARED-ROLE\"},"
+                    + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},\"object\":{\"key\":\"" + key + "\"}}}]}");
+        }
+
+        // Every upload is checked in full; the legacy flag does not turn later uploads into known fraud
+        verify(legacySystemService, times(3)).checkUserFraud("AWS:SHARED-ROLE");
+        assertEquals(0.0, meterRegistry.counter("fraud.check.executions", "check", "ai", "outcome", "skipped").count());
+        assertNull(((UserRiskStore) ReflectionTestUtils.getField(fraudDetectionService, "userRiskStore"))
+                .snapshot("AWS:SHARED-ROLE"));
+    }
+
+    @Test
+    void testReceiveMessage_ReuploadOfTheSameBytesIsCheckedAgain() throws Exception {
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> new ResponseInputStream<>(
+                GetObjectResponse.builder().contentType("text/plain").contentLength(5L).build(),
+                new ByteArrayInputStream("clean".getBytes(StandardCharsets.UTF_8))));
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        // Same key and ETag in an unversioned bucket, uploaded twice
+        for (String sequencer : List.of("0A", "0B")) {
+            fraudDetectionService.receiveMessage("message-" + sequencer, "{\"Records\":["
+                    + "{\"eventName\":\"ObjectCreated:Put\",\"userIdentity\":{\"principalId\":\"uploader\"},"
+                    + "\"s3\":{\"bucket\":{\"name\":\"uploads\"},"
+                    + "\"object\":{\"key\":\"report.txt\",\"eTag\":\"e1\",\"sequencer\":\"" + sequencer + "\"}}}]}");
+        }
+        // Our envelope carries no sequencer, so an ETag alone does not deduplicate the file
+        String envelope = "{\"bucket\":\"uploads\",\"key\":\"report.txt\",\"userId\":\"uploader\",\"eTag\":\"e1\"}";
+        fraudDetectionService.receiveMessage("message-1", envelope);
+        fraudDetectionService.receiveMessage("message-2", envelope);
+
+        verify(s3Client, times(4)).getObject(any(GetObjectRequest.class));
+        verify(sqsResultPublisher, times(4)).publish(anyString());
+    }
+
+    @Test
+    void testReceiveMessage_RedeliveredMessageIsNotProcessedAgain() throws Exception {
+        String message = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> new ResponseInputStream<>(
+                GetObjectResponse.builder().contentType("text/plain").contentLength(5L).build(),
+                new ByteArrayInputStream("clean".getBytes(StandardCharsets.UTF_8))));
+        when(invokeResponse.body().asUtf8String()).thenReturn("No Issues Detected");
+        when(sageMakerRuntimeClient.invokeEndpoint(any(InvokeEndpointRequest.class))).thenReturn(invokeResponse);
+
+        fraudDetectionService.receiveMessage("message-1", message);
+        fraudDetectionService.receiveMessage("message-1", message);
+
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+        verify(sqsResultPublisher, times(1)).publish(anyString());
+        // The claim and the done record; the redelivery is recognized without a DynamoDB call
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient, times(2)).putItem(putCaptor.capture());
+        assertEquals("message:message-1", putCaptor.getValue().item().get("id").s());
+        assertEquals("done", putCaptor.getValue().item().get("state").s());
+    }
+
+    @Test
+    void testReceiveMessage_FileProcessedElsewhereIsSkipped() throws Exception {
+        String message = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\",\"versionId\":\"v1\"}";
+        when(dynamoDbClient.putItem(any(PutItemRequest.class))).thenThrow(ConditionalCheckFailedException.builder()
+                .item(Map.of("state", AttributeValue.fromS("done")))
+                .build());
+
+        fraudDetectionService.receiveMessage(message);
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient).putItem(putCaptor.capture());
+        assertEquals("file:test-bucket/test-file.txt@v1", putCaptor.getValue().item().get("id").s());
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+        verify(sqsResultPublisher, never()).publish(anyString());
+    }
+
+    @Test
+    void testReceiveMessage_MessageBeingProcessedElsewhereIsRetriedLater() {
+        String message = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
+        when(dynamoDbClient.putItem(any(PutItemRequest.class))).thenThrow(ConditionalCheckFailedException.builder()
+                .item(Map.of("state", AttributeValue.fromS("in_progress")))
+                .build());
+
+        WorkInProgressException e = assertThrows(WorkInProgressException.class,
+                () -> fraudDetectionService.receiveMessage("message-1", message));
+
+        assertEquals("message:message-1", e.key());
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+        // The claim is the other consumer's to release
+        verify(dynamoDbClient, never()).deleteItem(any(DeleteItemRequest.class));
+    }
+
+    @Test
+    void testReceiveMessage_FailedMessageReleasesItsClaim() {
+        String message = "{\"bucket\":\"test-bucket\",\"key\":\"test-file.txt\",\"userId\":\"test-user\"}";
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(SdkClientException.create("S3 unavailable"));
+
+        assertThrows(SdkClientException.class, () -> fraudDetectionService.receiveMessage("message-1", message));
+
+        ArgumentCaptor<DeleteItemRequest> deleteCaptor = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDbClient).deleteItem(deleteCaptor.capture());
+        assertEquals("message:message-1", deleteCaptor.getValue().key().get("id").s());
+    }
+
+    @Test
+    void testReceiveMessage_InvalidMessageIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> fraudDetectionService.receiveMessage("not json"));
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    private DependencyGuard sageMakerGuard(CircuitBreaker circuitBreaker) {
+        return new DependencyGuard("sagemaker", circuitBreaker,
+                new AdaptiveConcurrencyLimiter(1000, 1, 1000, Duration.ofMinutes(1), 0.9),
+                Duration.ofMinutes(1), meterRegistry);
     }
-}
\ No newline at end of file
+}
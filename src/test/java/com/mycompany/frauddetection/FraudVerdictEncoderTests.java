@@ -0,0 +1,55 @@
+package com.mycompany.frauddetection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.frauddetection.record.CheckResult;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import com.mycompany.frauddetection.service.FraudVerdictEncoder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FraudVerdictEncoderTests {
+
+    private final FraudVerdict verdict = new FraudVerdict("user-ü",
+            new CheckResult(false, CheckResult.Outcome.COMPLETED, 1_234_567),
+            new CheckResult(true, CheckResult.Outcome.TIMEOUT, 2_000_000),
+            new CheckResult(false, CheckResult.Outcome.CACHED, 0));
+
+    @Test
+    void testJsonKeepsTheFlatVerdictsAndAddsPerCheckResults() throws Exception {
+        JsonNode json = new ObjectMapper().readTree(new FraudVerdictEncoder(FraudVerdictEncoder.Format.JSON).encode(verdict));
+
+        assertEquals("user-ü", json.get("userId").asText());
+        assertTrue(json.get("fraud").asBoolean());
+        assertFalse(json.get("aiFraudCheck").asBoolean());
+        assertTrue(json.get("legacyFraudCheck").asBoolean());
+        assertFalse(json.get("contentFraudCheck").asBoolean());
+        assertEquals("timeout", json.at("/legacy/outcome").asText());
+        assertEquals(1_234_567, json.at("/ai/durationMicros").asLong());
+    }
+
+    @Test
+    void testJsonOmitsUnknownOutcomes() throws Exception {
+        String json = FraudVerdictEncoder.encodeJson(new FraudVerdict("user", true, false, false));
+
+        assertFalse(json.contains("outcome"));
+        assertTrue(new ObjectMapper().readTree(json).get("aiFraudCheck").asBoolean());
+    }
+
+    @Test
+    void testBinaryRoundTrip() {
+        String encoded = new FraudVerdictEncoder(FraudVerdictEncoder.Format.BINARY).encode(verdict);
+
+        assertEquals(verdict, FraudVerdictEncoder.decodeBinary(encoded));
+        assertTrue(encoded.length() < FraudVerdictEncoder.encodeJson(verdict).length() / 4);
+        FraudVerdict unknownOutcomes = new FraudVerdict("user", true, false, true);
+        assertEquals(unknownOutcomes, FraudVerdictEncoder.decodeBinary(FraudVerdictEncoder.encodeBinary(unknownOutcomes)));
+    }
+
+    @Test
+    void testBinaryRejectsUnknownVersions() {
+        assertThrows(IllegalArgumentException.class, () -> FraudVerdictEncoder.decodeBinary("Ag=="));
+        assertThrows(IllegalArgumentException.class, () -> FraudVerdictEncoder.decodeBinary("AQ=="));
+    }
+}
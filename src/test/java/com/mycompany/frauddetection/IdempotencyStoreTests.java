@@ -0,0 +1,88 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.service.IdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class IdempotencyStoreTests {
+
+    @Mock
+    private DynamoDbClient dynamoDbClient;
+
+    private IdempotencyStore idempotencyStore;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        idempotencyStore = new IdempotencyStore(dynamoDbClient, new SimpleMeterRegistry(), true, "processed-messages",
+                1000, Duration.ofHours(24), Duration.ofMinutes(5));
+    }
+
+    @Test
+    void testClaimIsAConditionalPutWithAnExpiry() {
+        long before = System.currentTimeMillis() / 1000;
+
+        assertEquals(IdempotencyStore.Claim.CLAIMED, idempotencyStore.claim("message:1", "owner-1"));
+
+        ArgumentCaptor<PutItemRequest> putCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDbClient).putItem(putCaptor.capture());
+        PutItemRequest claim = putCaptor.getValue();
+        assertEquals("processed-messages", claim.tableName());
+        assertEquals("in_progress", claim.item().get("state").s());
+        assertEquals("owner-1", claim.item().get("owner").s());
+        assertTrue(Long.parseLong(claim.item().get("expiresAt").n()) >= before + 300);
+        assertEquals("attribute_not_exists(id) OR expiresAt < :now", claim.conditionExpression());
+    }
+
+    @Test
+    void testUnexpiredClaimOfSomeoneElseIsInProgress() {
+        when(dynamoDbClient.putItem(any(PutItemRequest.class))).thenThrow(ConditionalCheckFailedException.builder()
+                .item(Map.of("state", AttributeValue.fromS("in_progress")))
+                .build());
+
+        assertEquals(IdempotencyStore.Claim.IN_PROGRESS, idempotencyStore.claim("message:1", "owner-1"));
+    }
+
+    @Test
+    void testOnlyTheOwnerReleasesAClaim() {
+        idempotencyStore.release("message:1", "owner-1");
+
+        // A claim that expired and was taken over by another owner does not match, so it stays
+        ArgumentCaptor<DeleteItemRequest> deleteCaptor = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDbClient).deleteItem(deleteCaptor.capture());
+        DeleteItemRequest release = deleteCaptor.getValue();
+        assertEquals("#state = :inProgress AND #owner = :owner", release.conditionExpression());
+        assertEquals("owner-1", release.expressionAttributeValues().get(":owner").s());
+        assertEquals("in_progress", release.expressionAttributeValues().get(":inProgress").s());
+    }
+
+    @Test
+    void testWorkIsDoneAnywayWhenDynamoDbIsUnavailable() {
+        when(dynamoDbClient.putItem(any(PutItemRequest.class))).thenThrow(DynamoDbException.builder()
+                .message("unavailable")
+                .build());
+
+        assertEquals(IdempotencyStore.Claim.CLAIMED, idempotencyStore.claim("message:1", "owner-1"));
+        idempotencyStore.complete("message:1");
+
+        // Still known to this instance
+        assertEquals(IdempotencyStore.Claim.DONE, idempotencyStore.claim("message:1", "owner-1"));
+    }
+}
@@ -1,23 +1,55 @@
 package com.mycompany.frauddetection;
 
+import com.mycompany.frauddetection.resilience.AdaptiveConcurrencyLimiter;
+import com.mycompany.frauddetection.resilience.CircuitBreaker;
+import com.mycompany.frauddetection.resilience.DependencyGuard;
+import com.mycompany.frauddetection.resilience.DependencyUnavailableException;
 import com.mycompany.frauddetection.service.LegacySystemService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class LegacySystemServiceTests {
 
-    @InjectMocks
     private LegacySystemService legacySystemService;
 
     @Mock
@@ -26,6 +58,9 @@ class LegacySystemServiceTests {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        legacySystemService = new LegacySystemService(restTemplate, WebClient.create(), new SimpleMeterRegistry(),
+                legacyGuard(new CircuitBreaker(50, 20, 0.5, Duration.ofSeconds(10), 5)),
+                LegacySystemService.ClientMode.REST_TEMPLATE, 1000, Duration.ofMinutes(30), Duration.ofMillis(200));
         ReflectionTestUtils.setField(legacySystemService, "legacySystemUrl", "http://legacy-system");
         ReflectionTestUtils.setField(legacySystemService, "restTemplate", restTemplate);
     }
@@ -51,4 +86,212 @@ class LegacySystemServiceTests {
         boolean result = legacySystemService.checkUserFraud(userId);
         assertFalse(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCheckUserFraud_VerdictsAreCachedWithSeparateTtls() throws InterruptedException {
+        when(restTemplate.getForObject(eq("http://legacy-system/checkFraud?userId=bad-user"), eq(Boolean.class)))
+                .thenReturn(true);
+        when(restTemplate.getForObject(eq("http://legacy-system/checkFraud?userId=good-user"), eq(Boolean.class)))
+                .thenReturn(false);
+
+        assertTrue(legacySystemService.checkUserFraud("bad-user"));
+        assertFalse(legacySystemService.checkUserFraud("good-user"));
+        assertTrue(legacySystemService.checkUserFraud("bad-user"));
+        assertFalse(legacySystemService.checkUserFraud("good-user"));
+        assertEquals(2, legacySystemService.getCacheStats().hitCount());
+
+        // The clean verdict expires after 200 ms, the fraudulent one is kept for 30 minutes
+        Thread.sleep(300);
+        legacySystemService.checkUserFraud("bad-user");
+        legacySystemService.checkUserFraud("good-user");
+        verify(restTemplate, times(1)).getForObject(eq("http://legacy-system/checkFraud?userId=bad-user"), eq(Boolean.class));
+        verify(restTemplate, times(2)).getForObject(eq("http://legacy-system/checkFraud?userId=good-user"), eq(Boolean.class));
+    }
+
+    @Test
+    void testCheckUserFraud_ConcurrentLookupsAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(restTemplate.getForObject(anyString(), eq(Boolean.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+
+        List<CompletableFuture<Boolean>> lookups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("busy-user")));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        for (CompletableFuture<Boolean> lookup : lookups) {
+            assertTrue(lookup.get(5, TimeUnit.SECONDS));
+        }
+        verify(restTemplate, times(1)).getForObject(anyString(), eq(Boolean.class));
+    }
+
+    @Test
+    void testCheckUserFraud_FailuresAreNotCached() {
+        when(restTemplate.getForObject(anyString(), eq(Boolean.class)))
+                .thenThrow(new RestClientException("legacy system down"))
+                .thenReturn(false);
+
+        assertThrows(RestClientException.class, () -> legacySystemService.checkUserFraud("test-user"));
+        assertFalse(legacySystemService.checkUserFraud("test-user"));
+        verify(restTemplate, times(2)).getForObject(anyString(), eq(Boolean.class));
+    }
+
+    @Test
+    void testCheckUserFraud_LookupFailingWithAnErrorDoesNotBlockLaterCallers() {
+        when(restTemplate.getForObject(anyString(), eq(Boolean.class)))
+                .thenThrow(new NoClassDefFoundError("org/example/Missing"))
+                .thenReturn(true);
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> legacySystemService.checkUserFraud("test-user"));
+        assertInstanceOf(NoClassDefFoundError.class, e.getCause());
+        assertTrue(assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> legacySystemService.checkUserFraud("test-user")));
+    }
+
+    @Test
+    void testCheckUserFraud_OpenCircuitBreakerFailsFast() {
+        legacySystemService = new LegacySystemService(restTemplate, WebClient.create(), new SimpleMeterRegistry(),
+                legacyGuard(new CircuitBreaker(4, 4, 0.5, Duration.ofMinutes(1), 1)),
+                LegacySystemService.ClientMode.REST_TEMPLATE, 1000, Duration.ofMinutes(30), Duration.ofMillis(200));
+        ReflectionTestUtils.setField(legacySystemService, "legacySystemUrl", "http://legacy-system");
+        when(restTemplate.getForObject(anyString(), eq(Boolean.class)))
+                .thenThrow(new RestClientException("legacy system down"));
+
+        for (int i = 0; i < 4; i++) {
+            String userId = "user-" + i;
+            assertThrows(RestClientException.class, () -> legacySystemService.checkUserFraud(userId));
+        }
+
+        // The breaker is open, so the legacy system is no longer called
+        assertThrows(DependencyUnavailableException.class, () -> legacySystemService.checkUserFraud("user-4"));
+        verify(restTemplate, times(4)).getForObject(anyString(), eq(Boolean.class));
+    }
+
+    @Test
+    void testCheckUserFraudAsync_WebClientMode() {
+        List<ClientRequest> requests = new ArrayList<>();
+        LegacySystemService webClientService = webClientService(request -> {
+            requests.add(request);
+            return Mono.just(jsonResponse(request.url().getQuery().endsWith("bad-user") ? "true" : "false"));
+        });
+
+        StepVerifier.create(webClientService.checkUserFraudAsync("bad-user")).expectNext(true).verifyComplete();
+        StepVerifier.create(webClientService.checkUserFraudAsync("good-user")).expectNext(false).verifyComplete();
+        StepVerifier.create(webClientService.checkUserFraudAsync("bad-user")).expectNext(true).verifyComplete();
+
+        // The third lookup is answered from the cache; the RestTemplate is never used
+        assertTrue(webClientService.isNonBlocking());
+        assertEquals(2, requests.size());
+        assertEquals("http://legacy-system/checkFraud?userId=bad-user", requests.get(0).url().toString());
+        verify(restTemplate, times(0)).getForObject(anyString(), eq(Boolean.class));
+    }
+
+    @Test
+    void testCheckUserFraud_WebClientModeSharesLookupsAcrossCallers() {
+        AtomicInteger calls = new AtomicInteger();
+        LegacySystemService webClientService = webClientService(request -> {
+            calls.incrementAndGet();
+            return Mono.just(jsonResponse("true")).delayElement(Duration.ofMillis(100));
+        });
+
+        Mono<Boolean> first = webClientService.checkUserFraudAsync("busy-user");
+        Mono<Boolean> second = webClientService.checkUserFraudAsync("busy-user");
+
+        StepVerifier.create(Mono.zip(first, second)).expectNextMatches(both -> both.getT1() && both.getT2()).verifyComplete();
+        assertTrue(webClientService.checkUserFraud("busy-user"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCheckUserFraud_ConcurrentLookupsAreSentToTheBulkEndpoint() throws Exception {
+        enableBatching(legacySystemService, true);
+        when(restTemplate.exchange(eq("http://legacy-system/checkFraud/bulk"), eq(HttpMethod.POST), any(HttpEntity.class),
+                any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(Map.of("user-1", true, "user-2", false)));
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("user-1"));
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("user-2"));
+        CompletableFuture<Boolean> unknown = CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("user-3"));
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertFalse(second.get(5, TimeUnit.SECONDS));
+        assertFalse(unknown.get(5, TimeUnit.SECONDS));
+        ArgumentCaptor<HttpEntity<List<String>>> bodyCaptor = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate, times(1)).exchange(anyString(), eq(HttpMethod.POST), bodyCaptor.capture(),
+                any(ParameterizedTypeReference.class));
+        assertEquals(3, bodyCaptor.getValue().getBody().size());
+        verify(restTemplate, never()).getForObject(anyString(), eq(Boolean.class));
+        legacySystemService.stopBatching();
+    }
+
+    @Test
+    void testCheckUserFraud_BatchedSingleCallsFailIndividually() throws Exception {
+        enableBatching(legacySystemService, false);
+        when(restTemplate.getForObject(eq("http://legacy-system/checkFraud?userId=good-user"), eq(Boolean.class)))
+                .thenReturn(false);
+        when(restTemplate.getForObject(eq("http://legacy-system/checkFraud?userId=broken-user"), eq(Boolean.class)))
+                .thenThrow(new RestClientException("legacy system down"));
+
+        CompletableFuture<Boolean> good = CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("good-user"));
+        CompletableFuture<Boolean> broken = CompletableFuture.supplyAsync(() -> legacySystemService.checkUserFraud("broken-user"));
+
+        assertFalse(good.get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> broken.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RestClientException.class, failure.getCause());
+        legacySystemService.stopBatching();
+    }
+
+    @Test
+    void testCheckUserFraudAsync_WebClientModeBatchesThroughTheBulkEndpoint() {
+        AtomicInteger calls = new AtomicInteger();
+        LegacySystemService webClientService = webClientService(request -> {
+            calls.incrementAndGet();
+            assertEquals(HttpMethod.POST, request.method());
+            return Mono.just(jsonResponse("{\"bad-user\":true,\"good-user\":false}"));
+        });
+        enableBatching(webClientService, true);
+
+        StepVerifier.create(Mono.zip(webClientService.checkUserFraudAsync("bad-user"),
+                        webClientService.checkUserFraudAsync("good-user")))
+                .expectNextMatches(both -> both.getT1() && !both.getT2())
+                .verifyComplete();
+        assertEquals(1, calls.get());
+        webClientService.stopBatching();
+    }
+
+    private static void enableBatching(LegacySystemService service, boolean bulkEndpoint) {
+        ReflectionTestUtils.setField(service, "batchEnabled", true);
+        ReflectionTestUtils.setField(service, "bulkEndpoint", bulkEndpoint);
+        ReflectionTestUtils.setField(service, "batchMaxSize", 50);
+        ReflectionTestUtils.setField(service, "batchWindow", Duration.ofMillis(100));
+        ReflectionTestUtils.setField(service, "maxConcurrentCalls", 4);
+        service.startBatching();
+    }
+
+    private LegacySystemService webClientService(ExchangeFunction exchangeFunction) {
+        LegacySystemService service = new LegacySystemService(restTemplate, WebClient.builder().exchangeFunction(exchangeFunction).build(),
+                new SimpleMeterRegistry(), legacyGuard(new CircuitBreaker(50, 20, 0.5, Duration.ofSeconds(10), 5)),
+                LegacySystemService.ClientMode.WEB_CLIENT, 1000, Duration.ofMinutes(30), Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(service, "legacySystemUrl", "http://legacy-system");
+        return service;
+    }
+
+    private static DependencyGuard legacyGuard(CircuitBreaker circuitBreaker) {
+        return new DependencyGuard("legacy", circuitBreaker,
+                new AdaptiveConcurrencyLimiter(1000, 1, 1000, Duration.ofMinutes(1), 0.9),
+                Duration.ofMinutes(1), new SimpleMeterRegistry());
+    }
+
+    private static ClientResponse jsonResponse(String body) {
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build();
+    }
+}
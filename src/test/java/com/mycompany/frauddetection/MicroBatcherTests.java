@@ -0,0 +1,80 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.batch.MicroBatcher;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MicroBatcherTests {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    void testFullBatchIsDispatchedWithoutWaiting() throws Exception {
+        try (MicroBatcher<String, Integer> batcher = new MicroBatcher<>("test", 3, Long.MAX_VALUE, Duration.ofMinutes(1), this::lengths)) {
+            CompletableFuture<Integer> a = batcher.submit("a", 1);
+            CompletableFuture<Integer> bb = batcher.submit("bb", 1);
+            CompletableFuture<Integer> ccc = batcher.submit("ccc", 1);
+
+            assertEquals(1, a.get(1, TimeUnit.SECONDS));
+            assertEquals(2, bb.get(1, TimeUnit.SECONDS));
+            assertEquals(3, ccc.get(1, TimeUnit.SECONDS));
+            assertEquals(List.of(List.of("a", "bb", "ccc")), batches);
+        }
+    }
+
+    @Test
+    void testPartialBatchIsDispatchedAfterMaxWait() throws Exception {
+        try (MicroBatcher<String, Integer> batcher = new MicroBatcher<>("test", 10, Long.MAX_VALUE, Duration.ofMillis(50), this::lengths)) {
+            CompletableFuture<Integer> result = batcher.submit("abcd", 1);
+
+            assertEquals(4, result.get(1, TimeUnit.SECONDS));
+            assertEquals(List.of(List.of("abcd")), batches);
+        }
+    }
+
+    @Test
+    void testItemThatDoesNotFitStartsTheNextBatch() throws Exception {
+        try (MicroBatcher<String, Integer> batcher = new MicroBatcher<>("test", 10, 100, Duration.ofMillis(50), this::lengths)) {
+            batcher.submit("first", 60);
+            batcher.submit("second", 60).get(1, TimeUnit.SECONDS);
+
+            assertEquals(List.of(List.of("first"), List.of("second")), batches);
+        }
+    }
+
+    @Test
+    void testHandlerFailureFailsEveryItemOfTheBatch() {
+        try (MicroBatcher<String, Integer> batcher = new MicroBatcher<>("test", 2, Long.MAX_VALUE, Duration.ofMinutes(1), batch -> {
+            throw new IllegalStateException("backend down");
+        })) {
+            CompletableFuture<Integer> first = batcher.submit("a", 1);
+            CompletableFuture<Integer> second = batcher.submit("b", 1);
+
+            assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, first::get).getCause());
+            assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+        }
+    }
+
+    @Test
+    void testCloseDispatchesPendingItems() throws Exception {
+        MicroBatcher<String, Integer> batcher = new MicroBatcher<>("test", 10, Long.MAX_VALUE, Duration.ofMinutes(1), this::lengths);
+        CompletableFuture<Integer> result = batcher.submit("ab", 1);
+        batcher.close();
+
+        assertEquals(2, result.get(1, TimeUnit.SECONDS));
+        assertTrue(batcher.submit("late", 1).isCompletedExceptionally());
+    }
+
+    private List<CompletableFuture<Integer>> lengths(List<String> batch) {
+        batches.add(batch);
+        return batch.stream().map(item -> CompletableFuture.completedFuture(item.length())).toList();
+    }
+}
@@ -0,0 +1,61 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineMetricsTests {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private PipelineMetrics pipelineMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        pipelineMetrics = new PipelineMetrics(meterRegistry);
+    }
+
+    @Test
+    void testStageIsTimedByOutcome() throws Exception {
+        assertEquals("parsed", pipelineMetrics.time(PipelineMetrics.PARSE, () -> "parsed"));
+        assertThrows(IOException.class, () -> pipelineMetrics.time(PipelineMetrics.PARSE, () -> {
+            throw new IOException("unreadable");
+        }));
+
+        assertEquals(1, meterRegistry.timer("fraud.pipeline.stage", "stage", "parse", "outcome", "success").count());
+        assertEquals(1, meterRegistry.timer("fraud.pipeline.stage", "stage", "parse", "outcome", "error").count());
+        assertEquals(1.0, meterRegistry.counter("fraud.pipeline.errors", "stage", "parse", "exception", "IOException").count());
+        assertEquals(0.0, meterRegistry.get("fraud.pipeline.in.flight").tag("stage", "parse").gauge().value());
+    }
+
+    @Test
+    void testAsyncStageIsInFlightUntilItCompletes() {
+        CompletableFuture<Boolean> call = new CompletableFuture<>();
+        CompletableFuture<Boolean> timed = pipelineMetrics.timeAsync(PipelineMetrics.SAGEMAKER, () -> call);
+
+        assertEquals(1.0, meterRegistry.get("fraud.pipeline.in.flight").tag("stage", "sagemaker").gauge().value());
+        assertEquals(0, meterRegistry.timer("fraud.pipeline.stage", "stage", "sagemaker", "outcome", "success").count());
+
+        call.complete(true);
+
+        assertTrue(timed.join());
+        assertEquals(0.0, meterRegistry.get("fraud.pipeline.in.flight").tag("stage", "sagemaker").gauge().value());
+        assertEquals(1, meterRegistry.timer("fraud.pipeline.stage", "stage", "sagemaker", "outcome", "success").count());
+    }
+
+    @Test
+    void testPayloadSizesAreRecordedPerStage() {
+        pipelineMetrics.recordPayloadSize(PipelineMetrics.S3_FETCH, 1024);
+        pipelineMetrics.recordPayloadSize(PipelineMetrics.S3_FETCH, 3072);
+
+        assertEquals(2, meterRegistry.get("fraud.pipeline.payload").tag("stage", "s3_fetch").summary().count());
+        assertEquals(4096.0, meterRegistry.get("fraud.pipeline.payload").tag("stage", "s3_fetch").summary().totalAmount());
+    }
+}
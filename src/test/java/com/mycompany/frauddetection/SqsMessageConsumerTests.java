@@ -0,0 +1,262 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.risk.UserThrottledException;
+import com.mycompany.frauddetection.service.FraudDetectionService;
+import com.mycompany.frauddetection.service.SqsMessageConsumer;
+import com.mycompany.frauddetection.service.WorkInProgressException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SqsMessageConsumerTests {
+
+    @Mock
+    private SqsClient sqsClient;
+
+    @Mock
+    private FraudDetectionService fraudDetectionService;
+
+    private SqsMessageConsumer sqsMessageConsumer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        sqsMessageConsumer = new SqsMessageConsumer(sqsClient, fraudDetectionService);
+        ReflectionTestUtils.setField(sqsMessageConsumer, "queueUrl", "test-queue-url");
+        ReflectionTestUtils.setField(sqsMessageConsumer, "concurrency", 4);
+        ReflectionTestUtils.setField(sqsMessageConsumer, "waitTimeSeconds", 0);
+        ReflectionTestUtils.setField(sqsMessageConsumer, "visibilityTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(sqsMessageConsumer, "inProgressDelaySeconds", 10);
+        ReflectionTestUtils.setField(sqsMessageConsumer, "shutdownTimeoutMs", 2000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sqsMessageConsumer.stop();
+    }
+
+    @Test
+    void testSuccessfulMessagesAreDeletedAndFailedMessagesAreKept() throws Exception {
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "ok"), message("2", "broken")))
+                .thenReturn(receiveResponse());
+        doThrow(new IllegalStateException("S3 unavailable")).when(fraudDetectionService).receiveMessage("2", "broken");
+
+        sqsMessageConsumer.start();
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            verify(fraudDetectionService).receiveMessage("1", "ok");
+            verify(fraudDetectionService).receiveMessage("2", "broken");
+            assertEquals(0, sqsMessageConsumer.getInFlightCount());
+        });
+        ArgumentCaptor<DeleteMessageRequest> deleteCaptor = ArgumentCaptor.forClass(DeleteMessageRequest.class);
+        verify(sqsClient, times(1)).deleteMessage(deleteCaptor.capture());
+        assertEquals("receipt-1", deleteCaptor.getValue().receiptHandle());
+    }
+
+    @Test
+    void testPollingStopsWhileAllWorkersAreBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "a"), message("2", "b"), message("3", "c"), message("4", "d")))
+                .thenReturn(receiveResponse());
+        doAnswer(invocation -> release.await(5, TimeUnit.SECONDS)).when(fraudDetectionService).receiveMessage(anyString(), anyString());
+
+        sqsMessageConsumer.start();
+
+        // The first request asks for one message per worker; with every worker busy no further request is made
+        await().atMost(Duration.ofSeconds(5)).until(() -> sqsMessageConsumer.getInFlightCount() == 4);
+        Thread.sleep(200);
+        ArgumentCaptor<ReceiveMessageRequest> receiveCaptor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        verify(sqsClient, times(1)).receiveMessage(receiveCaptor.capture());
+        assertEquals(4, receiveCaptor.getValue().maxNumberOfMessages());
+
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(
+                () -> verify(sqsClient, times(4)).deleteMessage(any(DeleteMessageRequest.class)));
+    }
+
+    @Test
+    void testMessagesOfThrottledUsersAreRedeliveredWhenTheUserIsLetThrough() throws Exception {
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "busy")))
+                .thenReturn(receiveResponse());
+        doThrow(new UserThrottledException("busy-user", Duration.ofSeconds(25))).when(fraudDetectionService).receiveMessage("1", "busy");
+
+        sqsMessageConsumer.start();
+
+        ArgumentCaptor<ChangeMessageVisibilityRequest> visibilityCaptor = ArgumentCaptor.forClass(ChangeMessageVisibilityRequest.class);
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(
+                () -> verify(sqsClient).changeMessageVisibility(visibilityCaptor.capture()));
+        assertEquals("receipt-1", visibilityCaptor.getValue().receiptHandle());
+        assertEquals(25, visibilityCaptor.getValue().visibilityTimeout());
+        verify(sqsClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+    }
+
+    @Test
+    void testMessagesProcessedByAnotherConsumerAreRetriedShortly() throws Exception {
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "twice")))
+                .thenReturn(receiveResponse());
+        doThrow(new WorkInProgressException("message:1")).when(fraudDetectionService).receiveMessage("1", "twice");
+
+        sqsMessageConsumer.start();
+
+        ArgumentCaptor<ChangeMessageVisibilityRequest> visibilityCaptor = ArgumentCaptor.forClass(ChangeMessageVisibilityRequest.class);
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(
+                () -> verify(sqsClient).changeMessageVisibility(visibilityCaptor.capture()));
+        assertEquals("receipt-1", visibilityCaptor.getValue().receiptHandle());
+        assertEquals(10, visibilityCaptor.getValue().visibilityTimeout());
+        verify(sqsClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+    }
+
+    @Test
+    void testExtensionInProgressDoesNotUndoADeferral() throws Exception {
+        // Extended every second
+        ReflectionTestUtils.setField(sqsMessageConsumer, "visibilityTimeoutSeconds", 3);
+        CountDownLatch extending = new CountDownLatch(1);
+        List<String> changes = Collections.synchronizedList(new ArrayList<>());
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "twice")))
+                .thenReturn(receiveResponse());
+        doAnswer(invocation -> {
+            extending.countDown();
+            Thread.sleep(300);
+            changes.add("extended");
+            return null;
+        }).when(sqsClient).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        doAnswer(invocation -> {
+            changes.add("deferred");
+            return null;
+        }).when(sqsClient).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+        doAnswer(invocation -> {
+            assertTrue(extending.await(5, TimeUnit.SECONDS));
+            throw new WorkInProgressException("message:1");
+        }).when(fraudDetectionService).receiveMessage("1", "twice");
+
+        sqsMessageConsumer.start();
+
+        // The extension read the message before it was deferred, so it has to land first
+        await().atMost(Duration.ofSeconds(5)).until(() -> changes.contains("deferred"));
+        Thread.sleep(1500);
+        assertEquals(List.of("extended", "deferred"), changes);
+    }
+
+    @Test
+    void testShutdownDrainsInFlightMessages() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "slow")))
+                .thenReturn(receiveResponse());
+        doAnswer(invocation -> {
+            started.countDown();
+            Thread.sleep(300);
+            return null;
+        }).when(fraudDetectionService).receiveMessage("1", "slow");
+
+        sqsMessageConsumer.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        sqsMessageConsumer.stop();
+
+        // The message finished within the deadline, so it is deleted rather than released
+        verify(sqsClient, times(1)).deleteMessage(any(DeleteMessageRequest.class));
+        verify(sqsClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        assertEquals(0, sqsMessageConsumer.getInFlightCount());
+    }
+
+    @Test
+    void testShutdownReleasesUnfinishedMessagesImmediately() throws Exception {
+        ReflectionTestUtils.setField(sqsMessageConsumer, "shutdownTimeoutMs", 100L);
+        CountDownLatch started = new CountDownLatch(2);
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "stuck"), message("2", "stuck")))
+                .thenReturn(receiveResponse());
+        doAnswer(invocation -> {
+            started.countDown();
+            Thread.sleep(10_000);
+            return null;
+        }).when(fraudDetectionService).receiveMessage(anyString(), eq("stuck"));
+
+        sqsMessageConsumer.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        sqsMessageConsumer.stop();
+
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> visibilityCaptor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(
+                () -> verify(sqsClient, atLeastOnce()).changeMessageVisibilityBatch(visibilityCaptor.capture()));
+        assertTrue(visibilityCaptor.getAllValues().stream()
+                .flatMap(request -> request.entries().stream())
+                .allMatch(entry -> entry.visibilityTimeout() == 0));
+        assertEquals(Set.of("receipt-1", "receipt-2"), visibilityCaptor.getAllValues().stream()
+                .flatMap(request -> request.entries().stream())
+                .map(ChangeMessageVisibilityBatchRequestEntry::receiptHandle)
+                .collect(Collectors.toSet()));
+        verify(sqsClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+        assertEquals(0, sqsMessageConsumer.getInFlightCount());
+    }
+
+    @Test
+    void testShutdownLeavesMessagesOfWorkersThatDoNotStopToTheirVisibilityTimeout() throws Exception {
+        ReflectionTestUtils.setField(sqsMessageConsumer, "shutdownTimeoutMs", 100L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(receiveResponse(message("1", "deaf")))
+                .thenReturn(receiveResponse());
+        doAnswer(invocation -> {
+            started.countDown();
+            // Ignores the interrupt
+            while (true) {
+                try {
+                    finish.await();
+                    return null;
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }).when(fraudDetectionService).receiveMessage("1", "deaf");
+
+        sqsMessageConsumer.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        sqsMessageConsumer.stop();
+
+        // Still being processed, so it must not reach another consumer yet
+        verify(sqsClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        assertEquals(1, sqsMessageConsumer.getInFlightCount());
+        finish.countDown();
+    }
+
+    private static Message message(String id, String body) {
+        return Message.builder().messageId(id).receiptHandle("receipt-" + id).body(body).build();
+    }
+
+    private static ReceiveMessageResponse receiveResponse(Message... messages) {
+        return ReceiveMessageResponse.builder().messages(List.of(messages)).build();
+    }
+}
@@ -0,0 +1,132 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.metrics.PipelineMetrics;
+import com.mycompany.frauddetection.service.SqsResultPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SqsResultPublisherTests {
+
+    @Mock
+    private SqsClient sqsClient;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private SqsResultPublisher sqsResultPublisher;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        sqsResultPublisher = new SqsResultPublisher(sqsClient, new PipelineMetrics(meterRegistry));
+        ReflectionTestUtils.setField(sqsResultPublisher, "queueUrl", "test-queue-url");
+        ReflectionTestUtils.setField(sqsResultPublisher, "maxWaitMs", 200L);
+        ReflectionTestUtils.setField(sqsResultPublisher, "maxAttempts", 3);
+        ReflectionTestUtils.setField(sqsResultPublisher, "capacity", 100);
+        ReflectionTestUtils.setField(sqsResultPublisher, "shutdownTimeoutMs", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sqsResultPublisher.stop();
+    }
+
+    @Test
+    void testResultsAreSentInBatchesOfTen() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenReturn(SendMessageBatchResponse.builder().build());
+        sqsResultPublisher.start();
+
+        for (int i = 0; i < 25; i++) {
+            sqsResultPublisher.publish("result-" + i);
+        }
+        sqsResultPublisher.stop();
+
+        ArgumentCaptor<SendMessageBatchRequest> batchCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(3)).sendMessageBatch(batchCaptor.capture());
+        List<Integer> batchSizes = batchCaptor.getAllValues().stream().map(batch -> batch.entries().size()).toList();
+        assertEquals(List.of(10, 10, 5), batchSizes);
+        verify(sqsClient, never()).sendMessage(any(SendMessageRequest.class));
+    }
+
+    @Test
+    void testOnlyFailedEntriesAreRetried() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenAnswer(invocation -> {
+                    SendMessageBatchRequest request = invocation.getArgument(0);
+                    // Fail "result-1" once with a transient error and reject "invalid" permanently
+                    List<BatchResultErrorEntry> failed = request.entries().stream()
+                            .filter(entry -> entry.messageBody().equals("invalid")
+                                    || entry.messageBody().equals("result-1") && request.entries().size() > 1)
+                            .map(entry -> BatchResultErrorEntry.builder()
+                                    .id(entry.id())
+                                    .code("Failed")
+                                    .senderFault(entry.messageBody().equals("invalid"))
+                                    .build())
+                            .collect(Collectors.toList());
+                    return SendMessageBatchResponse.builder().failed(failed).build();
+                });
+        sqsResultPublisher.start();
+
+        sqsResultPublisher.publish("result-0");
+        sqsResultPublisher.publish("result-1");
+        sqsResultPublisher.publish("invalid");
+        sqsResultPublisher.stop();
+
+        ArgumentCaptor<SendMessageBatchRequest> batchCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(2)).sendMessageBatch(batchCaptor.capture());
+        List<String> retried = batchCaptor.getAllValues().get(1).entries().stream()
+                .map(SendMessageBatchRequestEntry::messageBody)
+                .toList();
+        assertEquals(List.of("result-1"), retried);
+    }
+
+    @Test
+    void testFailedBatchesAreRetriedWithBackoff() {
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            attempts.add(System.nanoTime());
+            throw SqsException.builder().message("unavailable").build();
+        });
+        sqsResultPublisher.start();
+
+        sqsResultPublisher.publish("result");
+        sqsResultPublisher.stop();
+
+        // Given up after maxAttempts, waiting 50 ms and then 100 ms between them
+        assertEquals(3, attempts.size());
+        assertTrue(attempts.get(1) - attempts.get(0) >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(attempts.get(2) - attempts.get(1) >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1.0, meterRegistry.counter("fraud.pipeline.dropped", "stage", "sqs_publish").count());
+    }
+
+    @Test
+    void testPublishWithoutRunningPublisherSendsDirectly() {
+        sqsResultPublisher.publish("result");
+
+        verify(sqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        verify(sqsClient, never()).sendMessageBatch(any(SendMessageBatchRequest.class));
+    }
+}
@@ -0,0 +1,104 @@
+package com.mycompany.frauddetection;
+
+import com.mycompany.frauddetection.record.CheckResult;
+import com.mycompany.frauddetection.record.FraudVerdict;
+import com.mycompany.frauddetection.risk.UserRiskStore;
+import com.mycompany.frauddetection.risk.UserThrottledException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserRiskStoreTests {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AtomicLong now;
+
+    private UserRiskStore userRiskStore;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        now = new AtomicLong(1_000_000);
+        // A 60s window of 5s buckets, at most 3 uploads per window
+        userRiskStore = new UserRiskStore(meterRegistry, true, 4, 100, Duration.ofSeconds(60), 3,
+                Duration.ofMinutes(10), now::get);
+    }
+
+    @Test
+    void testUploadsAboveTheLimitAreThrottledUntilTheWindowSlides() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(UserRiskStore.Admission.EVALUATE, userRiskStore.admit("busy-user"));
+            now.addAndGet(10_000);
+        }
+
+        UserThrottledException e = assertThrows(UserThrottledException.class, () -> userRiskStore.admit("busy-user"));
+        // The first upload leaves the window 60s after it was counted
+        assertEquals(Duration.ofSeconds(30), e.retryAfter());
+        assertEquals(UserRiskStore.Admission.EVALUATE, userRiskStore.admit("other-user"));
+        assertEquals(1.0, meterRegistry.counter("fraud.user-risk.admissions", "admission", "throttled").count());
+
+        now.addAndGet(e.retryAfter().toMillis());
+        assertEquals(UserRiskStore.Admission.EVALUATE, userRiskStore.admit("busy-user"));
+        assertEquals(new UserRiskStore.RiskSnapshot(3, 3, null), userRiskStore.snapshot("busy-user"));
+    }
+
+    @Test
+    void testUserFlaggedByTheLegacySystemIsKnownFraudUntilTheMarkExpires() {
+        userRiskStore.admit("flagged-user");
+        userRiskStore.recordVerdict("flagged-user", verdict(true, CheckResult.Outcome.COMPLETED));
+
+        assertEquals(UserRiskStore.Admission.KNOWN_FRAUD, userRiskStore.admit("flagged-user"));
+        // A remembered legacy verdict keeps the mark but does not renew it
+        userRiskStore.recordVerdict("flagged-user", verdict(true, CheckResult.Outcome.CACHED));
+        assertTrue(userRiskStore.snapshot("flagged-user").lastFraud());
+
+        now.addAndGet(Duration.ofMinutes(10).toMillis());
+        assertEquals(UserRiskStore.Admission.EVALUATE, userRiskStore.admit("flagged-user"));
+    }
+
+    @Test
+    void testVerdictsOfOtherChecksDoNotMarkTheUser() {
+        userRiskStore.admit("user");
+        userRiskStore.recordVerdict("user", new FraudVerdict("user",
+                new CheckResult(true, CheckResult.Outcome.COMPLETED, 0),
+                new CheckResult(false, CheckResult.Outcome.COMPLETED, 0),
+                new CheckResult(false, CheckResult.Outcome.COMPLETED, 0)));
+
+        assertEquals(UserRiskStore.Admission.EVALUATE, userRiskStore.admit("user"));
+        assertTrue(userRiskStore.snapshot("user").lastFraud());
+    }
+
+    @Test
+    void testIdleUsersAreEvictedAndTheSizeIsBounded() {
+        for (int i = 0; i < 500; i++) {
+            userRiskStore.admit("user-" + i);
+        }
+        assertTrue(userRiskStore.size() <= 100);
+        assertTrue(meterRegistry.counter("fraud.user-risk.evictions").count() >= 400);
+
+        now.addAndGet(Duration.ofSeconds(60).toMillis());
+        userRiskStore.evictIdle();
+
+        assertEquals(0, userRiskStore.size());
+    }
+
+    @Test
+    void testDisabledStoreAdmitsEveryUpload() {
+        UserRiskStore disabled = new UserRiskStore(meterRegistry, false, 4, 100, Duration.ofSeconds(60), 0,
+                Duration.ofMinutes(10), now::get);
+
+        assertEquals(UserRiskStore.Admission.EVALUATE, disabled.admit("user"));
+        assertNull(disabled.snapshot("user"));
+    }
+
+    private static FraudVerdict verdict(boolean legacyFraud, CheckResult.Outcome legacyOutcome) {
+        return new FraudVerdict("user", new CheckResult(false, CheckResult.Outcome.SKIPPED, 0),
+                new CheckResult(legacyFraud, legacyOutcome, 0), new CheckResult(false, CheckResult.Outcome.COMPLETED, 0));
+    }
+}